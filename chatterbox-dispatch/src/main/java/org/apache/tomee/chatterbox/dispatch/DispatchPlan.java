@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import org.tomitribe.util.editor.Converter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * What delivering a message to an endpoint class involves, worked out once per class: the
+ * listener methods in a stable order, the patterns of their annotations compiled, and the
+ * source of each parameter resolved. Delivering a message then only walks this table,
+ * instead of reflecting on the class and compiling every pattern again. For each input of
+ * a message, a {@link LiteralIndex} over the patterns of all methods picks out in one pass
+ * the few methods whose patterns are worth evaluating.
+ *
+ * The inputs are passed in the order of the sources of the {@link ListenerAnnotations} of
+ * the API, for instance sender, subject and body.
+ */
+public final class DispatchPlan {
+
+    private static final Logger LOGGER = Logger.getLogger(DispatchPlan.class.getName());
+
+    // the suffix of the ListenerDispatcher implementations generated by chatterbox-processor
+    private static final String DISPATCHER_SUFFIX = "_Dispatcher";
+
+    private static final MethodType DISPATCH = MethodType.methodType(Object.class, Object.class, int.class, Object[].class);
+
+    private final ListenerAnnotations annotations;
+    private final List<MethodPlan> methods;
+    private final ListenerAnnotations.Settings settings;
+    private final LiteralIndex[] indexes;
+
+    private DispatchPlan(final ListenerAnnotations annotations, final List<MethodPlan> methods, final ListenerAnnotations.Settings settings) {
+        this.annotations = annotations;
+        this.methods = Collections.unmodifiableList(methods);
+        this.settings = settings;
+
+        indexes = new LiteralIndex[annotations.getSources().size()];
+        for (int source = 0; source < indexes.length; source++) {
+            final int s = source;
+            indexes[source] = new LiteralIndex(methods.stream().map(m -> m.patterns[s]).collect(Collectors.toList()));
+        }
+    }
+
+    public static DispatchPlan forClass(final Class<?> clazz, final ListenerAnnotations annotations) {
+        Object dispatcher = generatedDispatcher(clazz, annotations.getDispatcher());
+        List<Method> listeners = Collections.emptyList();
+        MethodHandle dispatch = null;
+        if (dispatcher != null) {
+            try {
+                listeners = Arrays.asList((Method[]) annotations.getDispatcher().getMethod("getListeners").invoke(dispatcher));
+                dispatch = MethodHandles.publicLookup().findVirtual(annotations.getDispatcher(), "invoke", DISPATCH).bindTo(dispatcher);
+            } catch (final InvocationTargetException e) {
+                // generated for an older version of the class
+                LOGGER.log(Level.WARNING, "Ignoring the outdated " + dispatcher.getClass().getName(), e.getCause());
+                dispatcher = null;
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unable to use the generated dispatcher of " + clazz.getName(), e);
+                dispatcher = null;
+            }
+        }
+
+        // the same order and filter either way, whatever order the dispatcher lists them in
+        final Method[] declared = dispatcher == null ? clazz.getDeclaredMethods() : listeners.toArray(new Method[0]);
+        Arrays.sort(declared, Comparator.comparing(Method::toString));
+
+        final List<MethodPlan> methods = new ArrayList<>();
+        for (final Method method : declared) {
+            final int modifiers = method.getModifiers();
+            if (Modifier.isPublic(modifiers) && !Modifier.isFinal(modifiers) && !Modifier.isAbstract(modifiers)
+                    && !annotations.isIgnored(method)) {
+                methods.add(new MethodPlan(annotations, method, methods.size(), dispatcher == null ? null : dispatch,
+                        listeners.indexOf(method)));
+            }
+        }
+
+        return new DispatchPlan(annotations, methods, annotations.getSettings(clazz));
+    }
+
+    /**
+     * The dispatcher chatterbox-processor generated for the class at build time, if any.
+     */
+    private static Object generatedDispatcher(final Class<?> clazz, final Class<?> type) {
+        final ClassLoader loader = clazz.getClassLoader();
+        if (loader == null) {
+            return null;
+        }
+
+        try {
+            final Class<?> generated = loader.loadClass(clazz.getName() + DISPATCHER_SUFFIX);
+            return type.cast(generated.getDeclaredConstructor().newInstance());
+        } catch (final ClassNotFoundException e) {
+            return null;
+        } catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+            LOGGER.log(Level.WARNING, "Unable to use the generated dispatcher of " + clazz.getName(), e);
+            return null;
+        }
+    }
+
+    public List<MethodPlan> getMethods() {
+        return methods;
+    }
+
+    /**
+     * The plan of a listener method of the class, or a new one for any other method.
+     */
+    public MethodPlan forMethod(final Method method) {
+        for (final MethodPlan plan : methods) {
+            if (plan.method.equals(method)) {
+                return plan;
+            }
+        }
+
+        return new MethodPlan(annotations, method, -1, null, -1);
+    }
+
+    public boolean isInvokeAllMatches() {
+        return settings.invokeAllMatches;
+    }
+
+    /**
+     * Whether all matching methods are to be called concurrently, see {@code InvokeAllMatches#parallel()}.
+     */
+    public boolean isParallel() {
+        return settings.parallel;
+    }
+
+    /**
+     * How long to wait for methods called concurrently, in milliseconds.
+     */
+    public long getTimeout() {
+        return settings.timeout;
+    }
+
+    /**
+     * The methods whose patterns for the given inputs match, in order. Patterns for inputs
+     * beyond those given are not looked at, see {@link #match(List, int, String)}.
+     */
+    public List<MethodPlan> match(final String... inputs) {
+        final BitSet candidates = new BitSet();
+        candidates.set(0, methods.size());
+        for (int source = 0; source < inputs.length; source++) {
+            candidates.and(indexes[source].candidates(inputs[source]));
+        }
+
+        final List<MethodPlan> matching = new ArrayList<>();
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final MethodPlan method = methods.get(i);
+            if (method.matches(inputs)) {
+                matching.add(method);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Those of the candidates whose pattern for one more input matches as well, for inputs
+     * that are expensive to get and only worth getting for some candidates.
+     */
+    public List<MethodPlan> match(final List<MethodPlan> candidates, final int source, final String input) {
+        final BitSet indexed = indexes[source].candidates(input);
+
+        final List<MethodPlan> matching = new ArrayList<>();
+        for (final MethodPlan method : candidates) {
+            if (indexed.get(method.index) && method.matches(source, input)) {
+                matching.add(method);
+            }
+        }
+        return matching;
+    }
+
+    public static final class MethodPlan {
+
+        private final Method method;
+        private final int index;
+        private final MethodPattern[] patterns;
+        private final Binder[] binders;
+        private final Invoker invoker;
+
+        private MethodPlan(final ListenerAnnotations annotations, final Method method, final int index,
+                           final MethodHandle dispatcher, final int listener) {
+            this.method = method;
+            this.index = index;
+
+            final List<ListenerAnnotations.Source> sources = annotations.getSources();
+            patterns = new MethodPattern[sources.size()];
+            for (int source = 0; source < patterns.length; source++) {
+                patterns[source] = MethodPattern.compile(sources.get(source).getPattern(method));
+            }
+
+            final Parameter[] parameters = method.getParameters();
+            binders = new Binder[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                for (int source = 0; source < patterns.length; source++) {
+                    final String variable = sources.get(source).getVariable(parameters[i]);
+                    if (variable != null) {
+                        binders[i] = new Binder(source, variable, parameters[i].getType(), patterns[source]);
+                    }
+                }
+            }
+
+            final boolean[] converted = new boolean[binders.length];
+            for (int i = 0; i < binders.length; i++) {
+                converted[i] = binders[i] != null;
+            }
+
+            this.invoker = new Invoker(method, converted, dispatcher, listener);
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * Whether the method looks at the input, through a pattern or a parameter bound to it.
+         */
+        public boolean uses(final int source) {
+            if (patterns[source] != null) {
+                return true;
+            }
+
+            for (final Binder binder : binders) {
+                if (binder != null && binder.source == source) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean matches(final int source, final String input) {
+            return patterns[source] == null || patterns[source].matches(input);
+        }
+
+        private boolean matches(final String[] inputs) {
+            for (int source = 0; source < inputs.length; source++) {
+                if (!matches(source, inputs[source])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The parameter values, converted to the parameter types.
+         */
+        public Object[] bind(final String... inputs) {
+            final Object[] values = arguments(inputs);
+            for (int i = 0; i < binders.length; i++) {
+                if (binders[i] != null) {
+                    values[i] = Converter.convert(values[i], binders[i].type, null);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * The arguments for {@link #invoke}: the bound parameters as the strings they are
+         * converted from, everything else {@code null}.
+         */
+        public Object[] arguments(final String... inputs) {
+            final Object[] values = new Object[binders.length];
+            if (binders.length == 0) {
+                return values;
+            }
+
+            final Template.Captures[] captures = new Template.Captures[patterns.length];
+            int matched = 0;
+
+            for (int i = 0; i < binders.length; i++) {
+                final Binder binder = binders[i];
+                if (binder == null) {
+                    continue;
+                }
+
+                final String input = binder.source < inputs.length ? inputs[binder.source] : null;
+                final String value;
+                if (binder.variable == Binder.WHOLE_INPUT) {
+                    value = input;
+                } else if (binder.variable < 0) {
+                    value = null;
+                } else {
+                    // each input is matched at most once, and only if a parameter needs a variable of it
+                    if ((matched & 1 << binder.source) == 0) {
+                        captures[binder.source] = patterns[binder.source].capture(input);
+                        matched |= 1 << binder.source;
+                    }
+
+                    value = captures[binder.source] == null ? null : captures[binder.source].get(binder.variable);
+                }
+
+                values[i] = value;
+            }
+
+            return values;
+        }
+
+        public Object invoke(final Object target, final Object[] arguments) throws IllegalAccessException, InvocationTargetException {
+            return invoker.invoke(target, arguments);
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    private static final class Binder {
+
+        private static final int WHOLE_INPUT = -2;
+
+        private final int source;
+        private final int variable;
+        private final Class<?> type;
+
+        /**
+         * Resolves the name of a template variable to its position once, so binding needs
+         * no lookups by name.
+         */
+        private Binder(final int source, final String name, final Class<?> type, final MethodPattern pattern) {
+            this.source = source;
+            this.type = type;
+
+            if (name == null || name.length() == 0) {
+                this.variable = WHOLE_INPUT;
+            } else {
+                this.variable = pattern == null ? -1 : pattern.indexOf(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calls the matching listener methods of an {@code @InvokeAllMatches(parallel = true)}
+ * endpoint concurrently and waits for all of them, up to a deadline, so that a delivery
+ * takes as long as its slowest method rather than the sum of them. All calls but the last
+ * are scheduled on the WorkManager; the last one runs on the delivering thread, which would
+ * otherwise just be waiting. Without a WorkManager, or if it rejects a call, calls run on
+ * the delivering thread one after another.
+ *
+ * Calls still running at the deadline are reported as timed out. They are not interrupted,
+ * as a listener method half way through is better left to finish, and they are not failures
+ * either: a caller redelivering the message for them would have the method run twice. When
+ * they do complete, their outcome is logged and handed to {@link #whenLate}, if set.
+ */
+public final class FanOut {
+
+    private static final Logger LOGGER = Logger.getLogger(FanOut.class.getName());
+
+    private final WorkManager workManager;
+    private final long timeout;
+    private final List<Call> calls = new ArrayList<>();
+    private volatile Consumer<Outcome> late = outcome -> {
+        // logged only
+    };
+
+    /**
+     * @param timeout how long to wait for the calls, in milliseconds
+     */
+    public FanOut(final WorkManager workManager, final long timeout) {
+        this.workManager = workManager;
+        this.timeout = timeout;
+    }
+
+    public FanOut add(final String name, final Callable<?> callable) {
+        calls.add(new Call(this, name, callable));
+        return this;
+    }
+
+    /**
+     * What to do with the outcome of a call that completes after the deadline, on the
+     * thread it ran on.
+     */
+    public FanOut whenLate(final Consumer<Outcome> late) {
+        this.late = late;
+        return this;
+    }
+
+    /**
+     * Runs the calls and waits for them to complete or the deadline to pass.
+     */
+    public Report run() {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        final CountDownLatch done = new CountDownLatch(calls.size());
+
+        for (int i = 0; i < calls.size(); i++) {
+            final Call call = calls.get(i);
+            call.done = done;
+
+            if (workManager == null || i == calls.size() - 1) {
+                call.run();
+                continue;
+            }
+
+            try {
+                workManager.scheduleWork(call);
+            } catch (final WorkException e) {
+                LOGGER.log(Level.FINE, "Unable to schedule " + call.name + ", calling it directly", e);
+                call.run();
+            }
+        }
+
+        try {
+            done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<Outcome> outcomes = new ArrayList<>(calls.size());
+        for (final Call call : calls) {
+            outcomes.add(call.outcome());
+        }
+
+        return new Report(outcomes);
+    }
+
+    private static final class Call implements Work {
+
+        private final FanOut fanOut;
+        private final String name;
+        private final Callable<?> callable;
+        private final long started = System.nanoTime();
+        private final AtomicReference<Outcome> outcome = new AtomicReference<>();
+        private volatile CountDownLatch done;
+
+        private Call(final FanOut fanOut, final String name, final Callable<?> callable) {
+            this.fanOut = fanOut;
+            this.name = name;
+            this.callable = callable;
+        }
+
+        @Override
+        public void run() {
+            Object result = null;
+            Throwable error = null;
+            try {
+                result = callable.call();
+            } catch (final Throwable t) {
+                error = t;
+            } finally {
+                final Outcome completed = new Outcome(name, result, error, false, elapsed());
+                final boolean reported = !outcome.compareAndSet(null, completed);
+                done.countDown();
+
+                // already reported as timed out
+                if (reported) {
+                    LOGGER.log(error == null ? Level.INFO : Level.WARNING, "After the deadline, " + completed);
+                    fanOut.late.accept(completed);
+                }
+            }
+        }
+
+        @Override
+        public void release() {
+            // left to complete, see the class comment
+        }
+
+        private Outcome outcome() {
+            final Outcome timedOut = new Outcome(name, null, null, true, elapsed());
+            return outcome.compareAndSet(null, timedOut) ? timedOut : outcome.get();
+        }
+
+        private long elapsed() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * What became of one call.
+     */
+    public static final class Outcome {
+
+        private final String name;
+        private final Object result;
+        private final Throwable error;
+        private final boolean timedOut;
+        private final long elapsed;
+
+        private Outcome(final String name, final Object result, final Throwable error, final boolean timedOut, final long elapsed) {
+            this.name = name;
+            this.result = result;
+            this.error = error;
+            this.timedOut = timedOut;
+            this.elapsed = elapsed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The value the call returned, {@code null} if it failed or timed out.
+         */
+        public Object getResult() {
+            return result;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public boolean isSuccessful() {
+            return !timedOut && error == null;
+        }
+
+        /**
+         * Milliseconds from when the call was added until it returned, or until the deadline.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        @Override
+        public String toString() {
+            final String state = timedOut ? "timed out" : error != null ? "failed: " + error : "returned";
+            return name + " " + state + " after " + elapsed + "ms";
+        }
+    }
+
+    /**
+     * The outcome of every call, in the order they were added.
+     */
+    public static final class Report {
+
+        private final List<Outcome> outcomes;
+
+        private Report(final List<Outcome> outcomes) {
+            this.outcomes = Collections.unmodifiableList(outcomes);
+        }
+
+        public List<Outcome> getOutcomes() {
+            return outcomes;
+        }
+
+        public boolean isSuccessful() {
+            return outcomes.stream().allMatch(Outcome::isSuccessful);
+        }
+
+        @Override
+        public String toString() {
+            final long failed = outcomes.stream().filter(o -> o.getError() != null).count();
+            final long timedOut = outcomes.stream().filter(Outcome::isTimedOut).count();
+
+            final StringBuilder sb = new StringBuilder();
+            sb.append(outcomes.size()).append(" calls, ")
+                    .append(outcomes.size() - failed - timedOut).append(" returned, ")
+                    .append(failed).append(" failed, ")
+                    .append(timedOut).append(" timed out");
+            for (final Outcome outcome : outcomes) {
+                sb.append("\n  ").append(outcome);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import org.tomitribe.util.editor.Converter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Calls a listener method through a method handle built once per method, instead of
+ * {@link Method#invoke}. The arguments bound from text are passed as strings and converted
+ * by a handle resolved once per parameter type, so for instance an int parameter is parsed
+ * straight into an int without ever being boxed. Methods the adapter may not access through
+ * a public lookup are still called reflectively.
+ *
+ * A ListenerDispatcher generated at build time replaces the method handle: it calls the
+ * method directly and parses text into numbers itself.
+ */
+final class Invoker {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    // exactly what the dispatchers generated by chatterbox-processor parse from text;
+    // anything else, java.lang.Number included, is only cast by them
+    private static final Set<Class<?>> PARSED_BY_DISPATCHER = new HashSet<>(Arrays.asList(
+            String.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class));
+
+    private static final ClassValue<MethodHandle> CONVERTERS = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(final Class<?> type) {
+            return converter(type);
+        }
+    };
+
+    private final Method method;
+    private final boolean[] converted;
+    private final MethodHandle handle;
+    private final MethodHandle dispatcher;
+    private final int listener;
+    private final boolean[] preconverted;
+
+    /**
+     * @param converted which of the arguments are strings to be converted to the parameter type
+     */
+    Invoker(final Method method, final boolean[] converted) {
+        this(method, converted, null, -1);
+    }
+
+    /**
+     * @param dispatcher the {@code invoke(Object, int, Object[])} method of the generated
+     * dispatcher of the class, bound to an instance of it, or {@code null}
+     * @param listener the position of the method in the {@code getListeners()} of the dispatcher
+     */
+    Invoker(final Method method, final boolean[] converted, final MethodHandle dispatcher, final int listener) {
+        this.method = method;
+        this.converted = converted.clone();
+        this.dispatcher = listener < 0 ? null : dispatcher;
+        this.listener = listener;
+        this.handle = this.dispatcher == null ? createHandle(method, converted) : null;
+
+        // what the dispatcher does not parse itself is converted before calling it
+        final Class<?>[] types = method.getParameterTypes();
+        final boolean[] before = new boolean[types.length];
+        boolean any = false;
+        for (int i = 0; i < types.length; i++) {
+            before[i] = converted[i] && !isParsedByDispatcher(types[i]);
+            any |= before[i];
+        }
+        this.preconverted = any ? before : null;
+    }
+
+    private static boolean isParsedByDispatcher(final Class<?> type) {
+        return PARSED_BY_DISPATCHER.contains(MethodType.methodType(type).wrap().returnType());
+    }
+
+    private static MethodHandle createHandle(final Method method, final boolean[] converted) {
+        MethodHandle handle;
+        try {
+            handle = LOOKUP.unreflect(method);
+        } catch (final IllegalAccessException e) {
+            // a public method of a class that is not public, outside of this package
+            try {
+                method.setAccessible(true);
+            } catch (final SecurityException denied) {
+                // left to fail when called
+            }
+            return null;
+        }
+
+        final Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (converted[i]) {
+                handle = MethodHandles.filterArguments(handle, i + 1, CONVERTERS.get(types[i]));
+            }
+        }
+
+        // (Object target, Object[] arguments) -> Object, null for void methods
+        return handle.asType(MethodType.genericMethodType(types.length + 1)).asSpreader(Object[].class, types.length);
+    }
+
+    /**
+     * A handle from String to the type, parsing primitives directly and leaving everything
+     * else to the Converter, as binding parameters always did.
+     */
+    private static MethodHandle converter(final Class<?> type) {
+        try {
+            if (String.class.equals(type)) {
+                return MethodHandles.identity(String.class);
+            }
+
+            final Class<?> box = MethodType.methodType(type).wrap().returnType();
+            if (type.isPrimitive() && Number.class.isAssignableFrom(box)) {
+                final String name = "parse" + Character.toUpperCase(type.getName().charAt(0)) + type.getName().substring(1);
+                return LOOKUP.findStatic(box, name, MethodType.methodType(type, String.class));
+            }
+
+            final MethodHandle convert = LOOKUP.findStatic(Converter.class, "convert",
+                    MethodType.methodType(Object.class, Object.class, Class.class, String.class));
+            return MethodHandles.insertArguments(convert, 1, type, null)
+                    .asType(MethodType.methodType(type, String.class));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("No converter for " + type.getName(), e);
+        }
+    }
+
+    Object invoke(final Object target, final Object[] arguments) throws IllegalAccessException, InvocationTargetException {
+        if (dispatcher != null && (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass().isInstance(target))) {
+            final Object[] values = preconverted == null ? arguments : arguments.clone();
+            if (preconverted != null) {
+                final Class<?>[] types = method.getParameterTypes();
+                for (int i = 0; i < values.length; i++) {
+                    if (preconverted[i]) {
+                        values[i] = Converter.convert(values[i], types[i], null);
+                    }
+                }
+            }
+
+            try {
+                return (Object) dispatcher.invokeExact(target, listener, values);
+            } catch (final Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        if (handle == null) {
+            final Class<?>[] types = method.getParameterTypes();
+            final Object[] values = arguments.clone();
+            for (int i = 0; i < values.length; i++) {
+                if (converted[i]) {
+                    values[i] = Converter.convert(values[i], types[i], null);
+                }
+            }
+
+            return method.invoke(target, values);
+        }
+
+        try {
+            return (Object) handle.invokeExact(target, arguments);
+        } catch (final Throwable t) {
+            // the same as Method.invoke reports failures of the method itself
+            throw new InvocationTargetException(t);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * How the API of a resource adapter marks up listener methods: the ListenerDispatcher
+ * interface chatterbox-processor generates implementations of, the @InvokeAllMatches
+ * annotation, and for each input of a message (such as the sender or the subject) the
+ * annotation matching it and the one binding parameters to it.
+ */
+public final class ListenerAnnotations {
+
+    private final Class<?> dispatcher;
+    private final Function<Class<?>, Settings> settings;
+    private final Predicate<Method> ignored;
+    private final List<Source> sources;
+
+    /**
+     * @param dispatcher the ListenerDispatcher interface of the API
+     * @param ignored public methods of listener classes that are not listeners
+     * @param sources the inputs of a message, in the order they are passed to a {@link DispatchPlan}
+     */
+    public <A extends Annotation> ListenerAnnotations(final Class<?> dispatcher, final Class<A> invokeAllMatches,
+                                                      final Predicate<A> parallel, final ToLongFunction<A> timeout,
+                                                      final Predicate<Method> ignored, final Source... sources) {
+        this.dispatcher = dispatcher;
+        this.settings = clazz -> {
+            final A annotation = clazz.getAnnotation(invokeAllMatches);
+            return annotation == null ? Settings.FIRST_MATCH
+                    : new Settings(true, parallel.test(annotation), timeout.applyAsLong(annotation));
+        };
+        this.ignored = ignored;
+        this.sources = Collections.unmodifiableList(Arrays.asList(sources.clone()));
+    }
+
+    Class<?> getDispatcher() {
+        return dispatcher;
+    }
+
+    Settings getSettings(final Class<?> clazz) {
+        return settings.apply(clazz);
+    }
+
+    boolean isIgnored(final Method method) {
+        return ignored.test(method);
+    }
+
+    List<Source> getSources() {
+        return sources;
+    }
+
+    /**
+     * An input of a message, with the annotation of listener methods matching it and the
+     * annotation of parameters bound to it.
+     */
+    public static final class Source {
+
+        private final Function<AnnotatedElement, String> pattern;
+        private final Function<AnnotatedElement, String> parameter;
+
+        private Source(final Function<AnnotatedElement, String> pattern, final Function<AnnotatedElement, String> parameter) {
+            this.pattern = pattern;
+            this.parameter = parameter;
+        }
+
+        public static <A extends Annotation, P extends Annotation> Source of(final Class<A> annotation, final Function<A, String> value,
+                                                                             final Class<P> parameter, final Function<P, String> name) {
+            return new Source(element -> valueOf(element, annotation, value), element -> valueOf(element, parameter, name));
+        }
+
+        private static <A extends Annotation> String valueOf(final AnnotatedElement element, final Class<A> type,
+                                                             final Function<A, String> value) {
+            final A annotation = element.getAnnotation(type);
+            return annotation == null ? null : value.apply(annotation);
+        }
+
+        /**
+         * The pattern the method matches the input against, or {@code null} if it takes any.
+         */
+        String getPattern(final Method method) {
+            return pattern.apply(method);
+        }
+
+        /**
+         * The template variable bound to the parameter, an empty string for the whole input,
+         * or {@code null} if the parameter is not bound to this input.
+         */
+        String getVariable(final Parameter parameter) {
+            return this.parameter.apply(parameter);
+        }
+    }
+
+    static final class Settings {
+
+        static final Settings FIRST_MATCH = new Settings(false, false, 0);
+
+        final boolean invokeAllMatches;
+        final boolean parallel;
+        final long timeout;
+
+        private Settings(final boolean invokeAllMatches, final boolean parallel, final long timeout) {
+            this.invokeAllMatches = invokeAllMatches;
+            this.parallel = parallel;
+            this.timeout = timeout;
+        }
+    }
+}
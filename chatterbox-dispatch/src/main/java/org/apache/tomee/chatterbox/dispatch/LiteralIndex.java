@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Narrows down which of a set of patterns can match an input in a single pass over it.
+ * Every match of a pattern contains one of its required literals, so an Aho-Corasick
+ * automaton over the literals of all patterns finds the candidates at once; only those then
+ * need their full regular expression or template evaluated. Patterns without a known
+ * literal are always candidates.
+ */
+final class LiteralIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final BitSet unconditional;
+
+    // the automaton, one entry per state, state 0 being the root
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] fail;
+    private final int[][] outputs;
+
+    /**
+     * @param patterns the patterns, by index; {@code null} entries stand for "no pattern"
+     */
+    LiteralIndex(final List<MethodPattern> patterns) {
+        unconditional = new BitSet(patterns.size());
+
+        final List<Map<Character, Integer>> children = new ArrayList<>();
+        final List<Set<Integer>> matches = new ArrayList<>();
+        children.add(new TreeMap<>());
+        matches.add(new LinkedHashSet<>());
+
+        for (int i = 0; i < patterns.size(); i++) {
+            final MethodPattern pattern = patterns.get(i);
+            final List<String> literals = pattern == null ? null : pattern.getRequiredLiterals();
+            if (literals == null || literals.isEmpty()) {
+                unconditional.set(i);
+                continue;
+            }
+
+            for (final String literal : literals) {
+                int state = 0;
+                for (int c = 0; c < literal.length(); c++) {
+                    Integer next = children.get(state).get(literal.charAt(c));
+                    if (next == null) {
+                        next = children.size();
+                        children.add(new TreeMap<>());
+                        matches.add(new LinkedHashSet<>());
+                        children.get(state).put(literal.charAt(c), next);
+                    }
+                    state = next;
+                }
+                matches.get(state).add(i);
+            }
+        }
+
+        final int states = children.size();
+        keys = new char[states][];
+        targets = new int[states][];
+        fail = new int[states];
+        outputs = new int[states][];
+
+        for (int state = 0; state < states; state++) {
+            final Map<Character, Integer> edges = children.get(state);
+            keys[state] = new char[edges.size()];
+            targets[state] = new int[edges.size()];
+
+            int e = 0;
+            for (final Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                keys[state][e] = edge.getKey();
+                targets[state][e] = edge.getValue();
+                e++;
+            }
+        }
+
+        // breadth first, so the failure state of every node is complete before its children
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (final int child : targets[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            matches.get(state).addAll(matches.get(fail[state]));
+
+            for (int e = 0; e < keys[state].length; e++) {
+                final int child = targets[state][e];
+                int f = fail[state];
+                int next;
+                while ((next = next(f, keys[state][e])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next < 0 ? 0 : next;
+                queue.add(child);
+            }
+        }
+
+        for (int state = 0; state < states; state++) {
+            final Set<Integer> found = matches.get(state);
+            if (found.isEmpty()) {
+                outputs[state] = NONE;
+                continue;
+            }
+
+            outputs[state] = new int[found.size()];
+            int o = 0;
+            for (final int pattern : found) {
+                outputs[state][o++] = pattern;
+            }
+        }
+    }
+
+    /**
+     * The indexes of the patterns which may match the input, in one pass over it.
+     */
+    BitSet candidates(final String input) {
+        final BitSet candidates = (BitSet) unconditional.clone();
+        if (input == null || keys[0].length == 0) {
+            return candidates;
+        }
+
+        int state = 0;
+        for (int i = 0; i < input.length(); i++) {
+            final char c = input.charAt(i);
+
+            int next;
+            while ((next = next(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = next < 0 ? 0 : next;
+
+            for (final int pattern : outputs[state]) {
+                candidates.set(pattern);
+            }
+        }
+
+        return candidates;
+    }
+
+    private int next(final int state, final char c) {
+        final char[] edges = keys[state];
+
+        int low = 0;
+        int high = edges.length - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (edges[middle] < c) {
+                low = middle + 1;
+            } else if (edges[middle] > c) {
+                high = middle - 1;
+            } else {
+                return targets[state][middle];
+            }
+        }
+
+        return -1;
+    }
+}
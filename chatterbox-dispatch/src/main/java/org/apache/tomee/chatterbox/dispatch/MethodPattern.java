@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The value of a matching annotation, such as @Subject or @Tweet, compiled once. A value matches either
+ * as a regular expression or as a template, and the template supplies the values of named
+ * parameters.
+ */
+public final class MethodPattern {
+
+    private static final Pattern EMBEDDED_FLAGS = Pattern.compile("\\(\\?[a-zA-Z-]");
+
+    // escapes of a single character, or of a class of them, which take no arguments
+    private static final String CLASS_ESCAPES = "dDsSwWhHvVbBAGZzRXtnrfae";
+
+    private final String value;
+    private final Pattern regex;
+    private final Template template;
+    private final List<String> literals;
+    private final ThreadLocal<Matcher> regexMatcher;
+
+    private MethodPattern(final String value) {
+        this.value = value;
+        this.regex = compileRegex(value);
+        this.template = compileTemplate(value);
+        this.literals = requiredLiterals(value, regex, template);
+        this.regexMatcher = regex == null ? null : ThreadLocal.withInitial(() -> regex.matcher(""));
+    }
+
+    /**
+     * @return the compiled pattern, or {@code null} for an empty value, which matches anything
+     */
+    public static MethodPattern compile(final String value) {
+        if (value == null || value.length() == 0) {
+            return null;
+        }
+
+        return new MethodPattern(value);
+    }
+
+    private static Pattern compileRegex(final String value) {
+        try {
+            return Pattern.compile(value);
+        } catch (final PatternSyntaxException e) {
+            // only usable as a template
+            return null;
+        }
+    }
+
+    private static Template compileTemplate(final String value) {
+        try {
+            return new Template(value);
+        } catch (final RuntimeException e) {
+            // only usable as a regular expression
+            return null;
+        }
+    }
+
+    /**
+     * Literals of which every input matching either interpretation contains at least one,
+     * or an empty list if that cannot be told.
+     */
+    private static List<String> requiredLiterals(final String value, final Pattern regex, final Template template) {
+        // with embedded flags such as (?i) the literal may match in another case
+        if (EMBEDDED_FLAGS.matcher(value).find() || template == null) {
+            return Collections.emptyList();
+        }
+
+        final String templateLiteral = requiredLiteral(template.getPatternValue());
+        if (templateLiteral == null || templateLiteral.length() == 0) {
+            return Collections.emptyList();
+        }
+
+        if (regex == null) {
+            return Collections.singletonList(templateLiteral);
+        }
+
+        final String regexLiteral = requiredLiteral(value);
+        if (regexLiteral == null || regexLiteral.length() == 0) {
+            return Collections.emptyList();
+        }
+
+        return regexLiteral.equals(templateLiteral) ? Collections.singletonList(regexLiteral)
+                : Arrays.asList(regexLiteral, templateLiteral);
+    }
+
+    /**
+     * The longest run of literal characters that any full match of the regular expression
+     * has to contain, an empty string if there is none, or {@code null} when the expression
+     * uses constructs (such as top level alternation) that are not analysed.
+     */
+    static String requiredLiteral(final String regex) {
+        String longest = "";
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) {
+                    return null;
+                }
+
+                final char escaped = regex.charAt(++i);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    if (depth == 0) {
+                        run.append(escaped);
+                    }
+                } else if (CLASS_ESCAPES.indexOf(escaped) >= 0) {
+                    longest = longer(longest, run);
+                } else {
+                    // \x41, \u0041, \0101, \cA, \p{L}, back references and \Q..\E stand for
+                    // text that is not spelled out in the expression
+                    return null;
+                }
+                continue;
+            }
+
+            if (c == '[') {
+                longest = longer(longest, run);
+                i = skipCharacterClass(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                continue;
+            }
+
+            if (c == '(') {
+                // embedded flags such as (?i) or (?x) change how the rest of the expression reads
+                if (i + 2 < regex.length() && regex.charAt(i + 1) == '?'
+                        && (Character.isLetter(regex.charAt(i + 2)) || regex.charAt(i + 2) == '-')) {
+                    return null;
+                }
+
+                longest = longer(longest, run);
+                depth++;
+                continue;
+            }
+
+            if (c == ')') {
+                if (--depth < 0) {
+                    return null;
+                }
+                continue;
+            }
+
+            if (depth > 0) {
+                continue;
+            }
+
+            switch (c) {
+                case '|':
+                    return null;
+                case '?':
+                case '*':
+                case '{':
+                    // the preceding character is optional
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    longest = longer(longest, run);
+                    if (c == '{') {
+                        i = regex.indexOf('}', i);
+                        if (i < 0) {
+                            return null;
+                        }
+                    }
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    longest = longer(longest, run);
+                    break;
+                default:
+                    run.append(c);
+            }
+        }
+
+        if (depth != 0) {
+            return null;
+        }
+
+        return longer(longest, run);
+    }
+
+    private static String longer(final String longest, final StringBuilder run) {
+        final String candidate = run.toString();
+        run.setLength(0);
+        return candidate.length() > longest.length() ? candidate : longest;
+    }
+
+    private static int skipCharacterClass(final String regex, final int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+
+        // a ']' right after the opening bracket is a literal
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+
+        int nested = 0;
+        for (; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                nested++;
+            } else if (c == ']') {
+                if (nested-- == 0) {
+                    return i;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    public boolean matches(final String input) {
+        if (input == null) {
+            return false;
+        }
+
+        if (regex != null && regexMatcher.get().reset(input).matches()) {
+            return true;
+        }
+
+        return template != null && template.matches(input);
+    }
+
+    /**
+     * The position of a template variable, to look its value up in the captures of a match,
+     * or -1 if there is no such variable.
+     */
+    int indexOf(final String variable) {
+        return template == null ? -1 : template.indexOf(variable);
+    }
+
+    /**
+     * Where the template variables are found in the input, or {@code null} if it does not
+     * match. Only valid until the next match of this pattern on the same thread.
+     */
+    Template.Captures capture(final String input) {
+        return template == null ? null : template.match(input);
+    }
+
+    /**
+     * Literals of which every matching input contains at least one, or an empty list if that
+     * cannot be told.
+     */
+    public List<String> getRequiredLiterals() {
+        return literals;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
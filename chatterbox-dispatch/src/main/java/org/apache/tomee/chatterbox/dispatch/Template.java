@@ -14,7 +14,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package org.apache.tomee.chatterbox.imap.adapter;
+package org.apache.tomee.chatterbox.dispatch;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -38,6 +38,7 @@ public class Template {
     private final Pattern templateRegexPattern;
     private final String literals;
     private final List<UriChunk> uriChunks;
+    private final ThreadLocal<Captures> captures = ThreadLocal.withInitial(() -> new Captures(this));
 
     public Template(final String theTemplate) {
         template = theTemplate;
@@ -158,6 +159,106 @@ public class Template {
         return true;
     }
 
+    /**
+     * The position of a variable in {@link #getVariables()}, to look its value up in the
+     * {@link Captures} of a match, or -1 if the template has no such variable.
+     */
+    public int indexOf(final String variable) {
+        return variables.indexOf(variable);
+    }
+
+    /**
+     * Whether the input matches, without collecting the values of the variables.
+     */
+    public boolean matches(final String uri) {
+        return match(uri) != null;
+    }
+
+    /**
+     * Matches like {@link #match(String, Map)}, but leaves the values of the variables as
+     * offsets into the input instead of copying them into lists. The result is reused by
+     * the next match of this template on the same thread, so it must not be kept.
+     *
+     * @return the captures, or {@code null} if the input does not match
+     */
+    public Captures match(final String uri) {
+        if (uri == null) {
+            return null;
+        }
+
+        final Captures result = captures.get();
+        return result.match(uri) ? result : null;
+    }
+
+    /**
+     * Where the values of the variables of a template are found in a matched input, by
+     * their position in {@link #getVariables()}. Strings are only created on request.
+     */
+    public static final class Captures {
+
+        // deliberately no reference back to the template, which would keep it and its
+        // thread local reachable from every thread that ever matched it
+        private final Matcher matcher;
+        private final int[] groups;
+        private String input;
+
+        private Captures(final Template template) {
+            this.matcher = template.templateRegexPattern.matcher("");
+            this.groups = new int[template.variables.size()];
+        }
+
+        private boolean match(final String uri) {
+            input = uri;
+            matcher.reset(uri);
+            if (!matcher.matches()) {
+                input = null;
+                return false;
+            }
+
+            // the same assignment of groups to variables as match(String, Map)
+            final int groupCount = matcher.groupCount();
+            final int variableCount = groups.length;
+
+            int i = 1;
+            for (int v = 0; v < variableCount; v++) {
+                groups[v] = -1;
+                while (i <= groupCount) {
+                    final int group = i++;
+                    final int start = matcher.start(group);
+                    if ((start < 0 || start == matcher.end(group) && i < groupCount)
+                            && variableCount + 1 < groupCount) {
+                        continue;
+                    }
+
+                    groups[v] = group;
+                    break;
+                }
+            }
+
+            return true;
+        }
+
+        public int start(final int variable) {
+            return groups[variable] < 0 ? -1 : matcher.start(groups[variable]);
+        }
+
+        public int end(final int variable) {
+            return groups[variable] < 0 ? -1 : matcher.end(groups[variable]);
+        }
+
+        /**
+         * The value of a variable, or {@code null} if it did not participate in the match.
+         */
+        public String get(final int variable) {
+            if (variable < 0 || variable >= groups.length) {
+                return null;
+            }
+
+            final int start = start(variable);
+            return start < 0 ? null : input.substring(start, end(variable));
+        }
+    }
+
     public String substitute(final List<String> values) throws IllegalArgumentException {
         if (values == null) {
             throw new IllegalArgumentException("values is null");
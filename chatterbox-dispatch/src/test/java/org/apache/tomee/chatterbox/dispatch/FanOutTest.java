@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.resource.spi.work.ExecutionContext;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkListener;
+import javax.resource.spi.work.WorkManager;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class FanOutTest {
+
+    @Test
+    public void callsRunConcurrently() throws Exception {
+        final CountDownLatch started = new CountDownLatch(3);
+        final FanOut fanOut = new FanOut(new ThreadWorkManager(), 10000);
+        for (int i = 0; i < 3; i++) {
+            final int n = i;
+            fanOut.add("call" + i, () -> {
+                started.countDown();
+                // only returns if all three are running at the same time
+                return started.await(10, TimeUnit.SECONDS) ? n : -1;
+            });
+        }
+
+        final FanOut.Report report = fanOut.run();
+        Assert.assertTrue(report.toString(), report.isSuccessful());
+        Assert.assertEquals(3, report.getOutcomes().size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("call" + i, report.getOutcomes().get(i).getName());
+            Assert.assertEquals(i, report.getOutcomes().get(i).getResult());
+        }
+    }
+
+    @Test
+    public void reportsFailuresAndTimeouts() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final FanOut.Report report = new FanOut(new ThreadWorkManager(), 200)
+                .add("slow", () -> proceed.await(10, TimeUnit.SECONDS))
+                .add("broken", () -> {
+                    throw new IllegalStateException("broken");
+                })
+                .add("fine", () -> true)
+                .run();
+        proceed.countDown();
+
+        Assert.assertFalse(report.isSuccessful());
+        Assert.assertTrue(report.getOutcomes().get(0).isTimedOut());
+        Assert.assertTrue(report.getOutcomes().get(1).getError() instanceof IllegalStateException);
+        Assert.assertTrue(report.getOutcomes().get(2).isSuccessful());
+        Assert.assertTrue(report.toString(), report.toString().startsWith("3 calls, 1 returned, 1 failed, 1 timed out"));
+    }
+
+    @Test
+    public void lateCallsHandedOverWhenComplete() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final BlockingQueue<FanOut.Outcome> late = new LinkedBlockingQueue<>();
+        final FanOut.Report report = new FanOut(new ThreadWorkManager(), 200)
+                .whenLate(late::add)
+                .add("slow", () -> proceed.await(10, TimeUnit.SECONDS))
+                .add("fine", () -> true)
+                .run();
+
+        Assert.assertTrue(report.getOutcomes().get(0).isTimedOut());
+        Assert.assertTrue(late.isEmpty());
+        proceed.countDown();
+
+        final FanOut.Outcome outcome = late.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(outcome);
+        Assert.assertEquals("slow", outcome.getName());
+        Assert.assertTrue(outcome.isSuccessful());
+        Assert.assertEquals(true, outcome.getResult());
+    }
+
+    @Test
+    public void serialWithoutWorkManager() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final FanOut.Report report = new FanOut(null, 10000)
+                .add("first", () -> Thread.currentThread() == caller)
+                .add("second", () -> Thread.currentThread() == caller)
+                .run();
+
+        Assert.assertTrue(report.isSuccessful());
+        Assert.assertEquals(true, report.getOutcomes().get(0).getResult());
+        Assert.assertEquals(true, report.getOutcomes().get(1).getResult());
+    }
+
+    private static class ThreadWorkManager implements WorkManager {
+
+        @Override
+        public void doWork(final Work work) throws WorkException {
+            work.run();
+        }
+
+        @Override
+        public void doWork(final Work work, final long startTimeout, final ExecutionContext context, final WorkListener listener) throws WorkException {
+            work.run();
+        }
+
+        @Override
+        public long startWork(final Work work) throws WorkException {
+            scheduleWork(work);
+            return 0;
+        }
+
+        @Override
+        public long startWork(final Work work, final long startTimeout, final ExecutionContext context, final WorkListener listener) throws WorkException {
+            scheduleWork(work);
+            return 0;
+        }
+
+        @Override
+        public void scheduleWork(final Work work) throws WorkException {
+            final Thread thread = new Thread(work);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void scheduleWork(final Work work, final long startTimeout, final ExecutionContext context, final WorkListener listener) throws WorkException {
+            scheduleWork(work);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class LiteralIndexTest {
+
+    @Test
+    public void findsCandidatesInOnePass() {
+        final LiteralIndex index = new LiteralIndex(Arrays.asList(
+                MethodPattern.compile("Order {id}"),
+                MethodPattern.compile("Invoice [0-9]+"),
+                MethodPattern.compile("Refund.*")));
+
+        Assert.assertEquals(bits(0), index.candidates("Order 42"));
+        Assert.assertEquals(bits(1), index.candidates("Invoice 7"));
+        Assert.assertEquals(bits(), index.candidates("Shipping notice"));
+        Assert.assertEquals(bits(), index.candidates(null));
+    }
+
+    @Test
+    public void overlappingLiterals() {
+        final LiteralIndex index = new LiteralIndex(Arrays.asList(
+                MethodPattern.compile("she .*"),
+                MethodPattern.compile(".*he said"),
+                MethodPattern.compile("hers")));
+
+        Assert.assertEquals(bits(0, 1), index.candidates("she said"));
+        Assert.assertEquals(bits(2), index.candidates("ushers"));
+    }
+
+    @Test
+    public void patternsWithoutLiteralAlwaysCandidates() {
+        final LiteralIndex index = new LiteralIndex(Arrays.asList(
+                MethodPattern.compile("Order {id}"),
+                MethodPattern.compile("{anything}"),
+                MethodPattern.compile("(?i)order .*"),
+                MethodPattern.compile("Order|Invoice"),
+                null));
+
+        Assert.assertEquals(bits(1, 2, 3, 4), index.candidates("ORDER 42"));
+        Assert.assertEquals(bits(0, 1, 2, 3, 4), index.candidates("Order 42"));
+    }
+
+    @Test
+    public void candidatesIncludeEveryMatch() {
+        final List<String> values = Arrays.asList(
+                "\\x41bc.*", "\\0101bc", "\\u0041bc", "\\cAbc", "(?x)he llo", "(?i)abc", "a(?i)bc",
+                "\\p{Lu}bc", "(a)bc\\1", "a\\.b", "a.b", "foo{x}bar", "Order #(\\d+)", "[Ii]nvoice {n}",
+                "ab?c", "(?:re: )?hello", "\\Qa.b\\E", "echo {text}", "{who}@example.com/{resource}");
+        final List<String> inputs = Arrays.asList(
+                "Abc", "Abcdef", "\u0001bc", "hello", "HeLLo", "ABC", "aBC", "Bbc", "abcabc", "abc", "a.b", "axb",
+                "foo42bar", "Order #7", "invoice 3", "ac", "re: hello", "echo hi", "joe@example.com/laptop", "");
+
+        final MethodPattern[] patterns = new MethodPattern[values.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = MethodPattern.compile(values.get(i));
+        }
+        final LiteralIndex index = new LiteralIndex(Arrays.asList(patterns));
+
+        for (final String input : inputs) {
+            final BitSet candidates = index.candidates(input);
+            for (int i = 0; i < patterns.length; i++) {
+                if (regexMatches(values.get(i), input) || patterns[i].matches(input)) {
+                    Assert.assertTrue(values.get(i) + " matches " + input, candidates.get(i));
+                }
+            }
+        }
+    }
+
+    private static boolean regexMatches(final String regex, final String input) {
+        try {
+            return Pattern.matches(regex, input);
+        } catch (final PatternSyntaxException e) {
+            return false;
+        }
+    }
+
+    private static BitSet bits(final int... indexes) {
+        final BitSet bits = new BitSet();
+        for (final int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class MethodPatternTest {
+
+    @Test
+    public void requiredLiteral() throws Exception {
+        Assert.assertEquals("test", MethodPattern.requiredLiteral(".*test.*"));
+        Assert.assertEquals("Order #", MethodPattern.requiredLiteral("Order #(\\d+)"));
+        Assert.assertEquals("@example.com", MethodPattern.requiredLiteral(".*@example\\.com>?"));
+        Assert.assertEquals(" invoice", MethodPattern.requiredLiteral("[Ii]nvoices? .* invoice"));
+        Assert.assertEquals("", MethodPattern.requiredLiteral(".*"));
+        Assert.assertNull(MethodPattern.requiredLiteral("alpha|beta"));
+    }
+
+    @Test
+    public void escapesWithArgumentsAreNotAnalysed() throws Exception {
+        Assert.assertNull(MethodPattern.requiredLiteral("\\x41bc.*"));
+        Assert.assertNull(MethodPattern.requiredLiteral("\\0101bc"));
+        Assert.assertNull(MethodPattern.requiredLiteral("\\u0041bc"));
+        Assert.assertNull(MethodPattern.requiredLiteral("\\cAbc"));
+        Assert.assertNull(MethodPattern.requiredLiteral("\\p{Lu}bc"));
+        Assert.assertNull(MethodPattern.requiredLiteral("(a)bc\\1"));
+        Assert.assertEquals("bc", MethodPattern.requiredLiteral("\\d\\sbc\\w"));
+    }
+
+    @Test
+    public void embeddedFlagsAreNotAnalysed() throws Exception {
+        Assert.assertNull(MethodPattern.requiredLiteral("(?x)he llo"));
+        Assert.assertNull(MethodPattern.requiredLiteral("(?i)hello"));
+        Assert.assertNull(MethodPattern.requiredLiteral("hello(?s).*world"));
+        Assert.assertNull(MethodPattern.requiredLiteral("(?-i)hello"));
+        Assert.assertEquals("hello", MethodPattern.requiredLiteral("(?:re: )?hello"));
+    }
+
+    @Test
+    public void requiredLiteralsOfBothInterpretations() throws Exception {
+        Assert.assertEquals(Collections.singletonList("Order "), MethodPattern.compile("Order {id}").getRequiredLiterals());
+        Assert.assertEquals(Collections.singletonList("@example\\"), MethodPattern.compile("{user}@example\\.com").getRequiredLiterals());
+        Assert.assertEquals(Arrays.asList("joe@example.com", "joe@example\\"), MethodPattern.compile("joe@example\\.com").getRequiredLiterals());
+        Assert.assertEquals(Collections.emptyList(), MethodPattern.compile("(?i)order {id}").getRequiredLiterals());
+        Assert.assertEquals(Collections.emptyList(), MethodPattern.compile("{anything}").getRequiredLiterals());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.dispatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TemplateTest {
+
+    @Test
+    public void capturesAgreeWithMatch() {
+        final Template template = new Template("{user}@{domain: [a-z.]+}");
+        final String input = "joe@example.com";
+
+        final Map<String, List<String>> values = new HashMap<>();
+        Assert.assertTrue(template.match(input, values));
+
+        final Template.Captures captures = template.match(input);
+        Assert.assertNotNull(captures);
+        for (final String variable : template.getVariables()) {
+            Assert.assertEquals(values.get(variable).get(0), captures.get(template.indexOf(variable)));
+        }
+
+        final int domain = template.indexOf("domain");
+        Assert.assertEquals(4, captures.start(domain));
+        Assert.assertEquals(input.length(), captures.end(domain));
+    }
+
+    @Test
+    public void capturesReusedPerThread() {
+        final Template template = new Template("Order {id}");
+
+        final Template.Captures first = template.match("Order 1");
+        Assert.assertEquals("1", first.get(template.indexOf("id")));
+
+        Assert.assertSame(first, template.match("Order 2"));
+        Assert.assertEquals("2", first.get(template.indexOf("id")));
+    }
+
+    @Test
+    public void noMatch() {
+        final Template template = new Template("Order {id}");
+
+        Assert.assertNull(template.match("Invoice 1"));
+        Assert.assertNull(template.match((String) null));
+        Assert.assertFalse(template.matches("Invoice 1"));
+        Assert.assertEquals(-1, template.indexOf("missing"));
+    }
+}
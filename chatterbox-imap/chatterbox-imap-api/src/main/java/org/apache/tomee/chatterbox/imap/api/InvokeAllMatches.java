@@ -22,8 +22,25 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Delivers a message to every matching listener method, rather than just the first one.
+ */
 @Inherited
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface InvokeAllMatches {
+
+    /**
+     * Calls the matching methods concurrently on the WorkManager, each on an endpoint of its
+     * own, instead of one after another. Only worthwhile if the methods are independent of
+     * each other, as they may run in any order.
+     */
+    boolean parallel() default false;
+
+    /**
+     * How long, in milliseconds, a parallel delivery waits for all methods to return. Methods
+     * still running after that are logged as timed out and left to finish; the message is not
+     * delivered to them a second time.
+     */
+    long timeout() default 30000;
 }
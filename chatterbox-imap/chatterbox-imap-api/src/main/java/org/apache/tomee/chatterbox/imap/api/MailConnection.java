@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.api;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import java.util.List;
+
+/**
+ * Sends mail over one of the resource adapter's pooled, already authenticated SMTP
+ * connections. Close the connection to return it to the pool.
+ */
+public interface MailConnection {
+
+    /**
+     * The session to create messages with, e.g. {@code new MimeMessage(connection.getSession())}.
+     */
+    public Session getSession();
+
+    public void send(final Message message) throws MessagingException;
+
+    /**
+     * Sends the messages one after another over the same SMTP connection.
+     */
+    public void send(final List<? extends Message> messages) throws MessagingException;
+
+    public void close();
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.apache.tomee.chatterbox.dispatch.MethodPattern;
+import org.apache.tomee.chatterbox.imap.api.Attachment;
+
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds attachments to @Attachment parameters. The parts are located through the message
+ * structure and opened as streams, so their content is fetched (and decoded) from the
+ * server in blocks while the endpoint reads it, rather than loaded into memory up front.
+ */
+final class Attachments {
+
+    private Attachments() {
+        // no-op
+    }
+
+    static boolean isBound(final Method method) {
+        for (final Parameter parameter : method.getParameters()) {
+            if (parameter.isAnnotationPresent(Attachment.class)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The @Attachment patterns of the method, compiled once, by parameter; {@code null} for
+     * other parameters, and for empty patterns, which take the first attachment.
+     */
+    static MethodPattern[] compile(final Method method) {
+        final Parameter[] parameters = method.getParameters();
+        final MethodPattern[] patterns = new MethodPattern[parameters.length];
+
+        for (int i = 0; i < parameters.length; i++) {
+            final Attachment attachment = parameters[i].getAnnotation(Attachment.class);
+            if (attachment != null) {
+                patterns[i] = MethodPattern.compile(attachment.value());
+            }
+        }
+
+        return patterns;
+    }
+
+    /**
+     * Sets the values of the @Attachment parameters of the method.
+     *
+     * @param patterns the patterns of the method, as {@link #compile(Method) compiled}
+     * @return the streams opened, to be closed once the method returned
+     */
+    static List<Closeable> bind(final Method method, final MethodPattern[] patterns, final Part message,
+                                final Object[] values) throws MessagingException, IOException {
+        final List<Closeable> streams = new ArrayList<>();
+        final Parameter[] parameters = method.getParameters();
+
+        for (int i = 0; i < parameters.length; i++) {
+            final Attachment attachment = parameters[i].getAnnotation(Attachment.class);
+            if (attachment == null) {
+                continue;
+            }
+
+            final Class<?> type = parameters[i].getType();
+            if (!InputStream.class.equals(type) && !ReadableByteChannel.class.equals(type)) {
+                throw new IllegalArgumentException("@Attachment parameters must be InputStream or ReadableByteChannel: " + method);
+            }
+
+            final Part part = find(message, patterns[i]);
+            if (part == null) {
+                values[i] = null;
+                continue;
+            }
+
+            final InputStream stream = part.getInputStream();
+            streams.add(stream);
+            values[i] = InputStream.class.equals(type) ? stream : Channels.newChannel(stream);
+        }
+
+        return streams;
+    }
+
+    /**
+     * The first attachment with a file name matching the pattern, or simply the first
+     * attachment if there is no pattern.
+     */
+    static Part find(final Part part, final MethodPattern pattern) throws MessagingException, IOException {
+        if (part.isMimeType("multipart/*")) {
+            final Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount(); i++) {
+                final Part found = find(multipart.getBodyPart(i), pattern);
+                if (found != null) {
+                    return found;
+                }
+            }
+
+            return null;
+        }
+
+        final String fileName = part.getFileName();
+        if (!Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition()) && fileName == null) {
+            return null;
+        }
+
+        if (pattern == null) {
+            return part;
+        }
+
+        return pattern.matches(fileName) ? part : null;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the failed deliveries of the messages of a folder which are being retried, so that
+ * a message an endpoint always fails on is given up on after a few attempts instead of
+ * holding the checkpoint back for good. Entries go once the message is delivered or given
+ * up on, and the least recently failed ones are dropped beyond a fixed number.
+ */
+final class DeliveryAttempts {
+
+    private static final int CAPACITY = 1000;
+
+    private final int maxAttempts;
+    private final Map<String, Integer> failures = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Integer> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    /**
+     * @param maxAttempts how many times a message is attempted at most; 0 or less for no limit
+     */
+    DeliveryAttempts(final int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Records a failed attempt.
+     *
+     * @return whether the message is to be retried, false once it ran out of attempts
+     */
+    boolean failed(final String key) {
+        final int attempts = failures.merge(key, 1, Integer::sum);
+        if (maxAttempts > 0 && attempts >= maxAttempts) {
+            failures.remove(key);
+            return false;
+        }
+
+        return true;
+    }
+
+    void succeeded(final String key) {
+        failures.remove(key);
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    int size() {
+        return failures.size();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+/**
+ * How far the UID checkpoint of a folder may advance while a window of messages is
+ * delivered. The checkpoint only moves past messages that were dealt with, in UID order;
+ * once a message is held back, such as one the dispatcher cancelled when the adapter
+ * stopped or one an endpoint failed on which is to be retried, nothing
+ * after it is checkpointed either, and the next sync starts from there.
+ * The deduplicator keeps the messages after it from being delivered twice.
+ */
+final class DeliveryProgress {
+
+    private final UidCheckpoint checkpoint;
+    private boolean complete = true;
+
+    DeliveryProgress(final UidCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * A message dealt with, which the checkpoint passes unless an earlier one was held back.
+     *
+     * @param uid the UID of the message, or -1 if the folder has none
+     */
+    void done(final long uid) {
+        if (complete && uid >= 0) {
+            checkpoint.update(uid);
+        }
+    }
+
+    /**
+     * A message an endpoint failed on, held back if it is to be retried. Otherwise, once it
+     * was moved to the failed folder or ran out of attempts, it counts as dealt with.
+     */
+    void failed(final long uid, final boolean retry) {
+        if (retry) {
+            holdBack();
+        } else {
+            done(uid);
+        }
+    }
+
+    /**
+     * A message the next sync has to deliver again.
+     */
+    void holdBack() {
+        complete = false;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import javax.resource.spi.work.Work;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs endpoint deliveries on a fixed number of WorkManager threads, decoupled from the
+ * folder workers, so that one slow listener method does not hold up mail intake for all
+ * the others. Deliveries wait in a bounded queue; once it is full, {@link #dispatch} blocks,
+ * which pauses the folder worker until the endpoints have caught up.
+ *
+ * If deliveries are ordered by key (such as the sender), each lane has a queue of its own
+ * and all deliveries with the same key go through the same lane, one after another.
+ */
+public class Dispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(Dispatcher.class.getName());
+
+    private static final long POLL_TIMEOUT = 1000;
+
+    private final List<BlockingQueue<FutureTask<Boolean>>> queues;
+    private final List<Lane> lanes;
+    private final boolean ordered;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    public Dispatcher(final int concurrency, final int queueSize, final boolean ordered) {
+        final int laneCount = Math.max(1, concurrency);
+        this.ordered = ordered;
+
+        final List<BlockingQueue<FutureTask<Boolean>>> queues = new ArrayList<>();
+        final List<Lane> lanes = new ArrayList<>();
+        if (ordered) {
+            final int laneSize = Math.max(1, queueSize / laneCount);
+            for (int i = 0; i < laneCount; i++) {
+                queues.add(new ArrayBlockingQueue<>(laneSize));
+            }
+        } else {
+            queues.add(new ArrayBlockingQueue<>(Math.max(1, queueSize)));
+        }
+
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new Lane(queues.get(i % queues.size())));
+        }
+
+        this.queues = Collections.unmodifiableList(queues);
+        this.lanes = Collections.unmodifiableList(lanes);
+    }
+
+    /**
+     * The work items consuming the queues, to be scheduled on the WorkManager.
+     */
+    public List<? extends Work> getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Queues a delivery, waiting for room in the queue if necessary.
+     *
+     * @param key deliveries with the same key run in order, if the dispatcher is ordered
+     * @return the outcome of the delivery; cancelled if the dispatcher stopped before running it
+     */
+    public Future<Boolean> dispatch(final String key, final Callable<Boolean> delivery) throws InterruptedException {
+        final FutureTask<Boolean> task = new FutureTask<>(delivery);
+        final BlockingQueue<FutureTask<Boolean>> queue = ordered
+                ? queues.get(Math.floorMod(key == null ? 0 : key.hashCode(), queues.size()))
+                : queues.get(0);
+
+        while (!queue.offer(task, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            if (stopped.get()) {
+                task.cancel(false);
+                return task;
+            }
+        }
+
+        // the dispatcher may have stopped while the task was queued
+        if (stopped.get()) {
+            cancelQueued();
+        }
+
+        return task;
+    }
+
+    public void stop() {
+        stopped.set(true);
+        cancelQueued();
+    }
+
+    private void cancelQueued() {
+        for (final BlockingQueue<FutureTask<Boolean>> queue : queues) {
+            FutureTask<Boolean> task;
+            while ((task = queue.poll()) != null) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private class Lane implements Work {
+
+        private final BlockingQueue<FutureTask<Boolean>> queue;
+
+        private Lane(final BlockingQueue<FutureTask<Boolean>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped.get()) {
+                    final FutureTask<Boolean> task = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (task != null) {
+                        task.run();
+                    }
+                }
+            } catch (final InterruptedException e) {
+                LOGGER.log(Level.FINE, "Dispatcher lane interrupted", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void release() {
+            stop();
+        }
+    }
+}
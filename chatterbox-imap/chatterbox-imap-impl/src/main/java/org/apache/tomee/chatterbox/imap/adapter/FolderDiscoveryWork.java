@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import javax.mail.Folder;
+import javax.mail.MessagingException;
+import javax.resource.ResourceException;
+import javax.resource.spi.work.Work;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves a wildcard folder pattern against the account's folder list, and has the resource
+ * adapter watch every matching folder that can hold messages. The list is fetched again every
+ * keep-alive interval, so that folders created later are picked up, and the listing itself keeps
+ * the connection from going idle.
+ */
+public class FolderDiscoveryWork implements Work {
+
+    private static final Logger LOGGER = Logger.getLogger(FolderDiscoveryWork.class.getName());
+
+    private final ImapResourceAdapter resourceAdapter;
+    private final ImapAccount account;
+    private final String pattern;
+    private final ImapSession imapSession;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    public FolderDiscoveryWork(final ImapResourceAdapter resourceAdapter, final ImapAccount account, final String pattern) {
+        this.resourceAdapter = resourceAdapter;
+        this.account = account;
+        this.pattern = pattern;
+        this.imapSession = new ImapSession(resourceAdapter, account, null);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped.get()) {
+                try {
+                    for (final Folder folder : imapSession.list(pattern)) {
+                        if (stopped.get()) {
+                            return;
+                        }
+
+                        if ((folder.getType() & Folder.HOLDS_MESSAGES) != 0) {
+                            resourceAdapter.watch(account, folder.getFullName());
+                        }
+                    }
+
+                    pause(imapSession.getKeepAliveInterval());
+                } catch (MessagingException | ResourceException e) {
+                    if (stopped.get()) {
+                        return;
+                    }
+
+                    LOGGER.log(Level.WARNING, String.format("Unable to list folders %s for %s %s: %s",
+                            pattern, account, e.getClass().getName(), e.getMessage()));
+                    imapSession.invalidate();
+                    pause(imapSession.getReconnectDelay());
+                }
+            }
+        } finally {
+            imapSession.close();
+        }
+    }
+
+    ImapAccount getAccount() {
+        return account;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    private synchronized void pause(final long millis) {
+        if (stopped.get()) {
+            return;
+        }
+
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void release() {
+        stopped.set(true);
+        synchronized (this) {
+            notifyAll();
+        }
+
+        imapSession.close();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Folder names as configured on the resource adapter and activation specs: comma separated,
+ * optionally using the IMAP LIST wildcards {@code *} (anything) and {@code %} (anything but a
+ * hierarchy level).
+ */
+final class FolderPattern {
+
+    static final String INBOX = "INBOX";
+
+    private FolderPattern() {
+        // no-op
+    }
+
+    static List<String> split(final String folders) {
+        final List<String> result = new ArrayList<>();
+        if (folders == null) {
+            return result;
+        }
+
+        for (final String folder : folders.split(",")) {
+            final String name = folder.trim();
+            if (name.length() > 0) {
+                result.add(normalize(name));
+            }
+        }
+
+        return result;
+    }
+
+    static boolean isWildcard(final String folder) {
+        return folder.indexOf('*') >= 0 || folder.indexOf('%') >= 0;
+    }
+
+    /**
+     * INBOX is the only case-insensitive mailbox name (RFC 3501).
+     */
+    static String normalize(final String folder) {
+        return INBOX.equalsIgnoreCase(folder) ? INBOX : folder;
+    }
+
+    static Pattern compile(final String folder) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (final char c : normalize(folder).toCharArray()) {
+            if (c == '*' || c == '%') {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+                regex.append(c == '*' ? ".*" : "[^/.]*");
+            } else {
+                literal.append(c);
+            }
+        }
+        regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -39,6 +39,11 @@ public class ImapActivationSpec implements ActivationSpec {
         this.beanClass = beanClass;
     }
 
+    /**
+     * Comma separated folders of the resource adapter's account to deliver mail from, in
+     * addition to the adapter's own folders. IMAP wildcards ({@code *}, {@code %}) may be used.
+     * When not set, the endpoint receives mail from every folder the adapter watches.
+     */
     public String getFolder() {
         return folder;
     }
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Store;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * IMAP extensions which are not part of the javax.mail API. Which JavaMail provider is
+ * available depends on the container, so the provider specific methods are looked up
+ * reflectively and callers fall back to plain javax.mail when they are missing.
+ */
+final class ImapExtensions {
+
+    private static final Logger LOGGER = Logger.getLogger(ImapExtensions.class.getName());
+
+    private ImapExtensions() {
+        // no-op
+    }
+
+    static boolean hasCapability(final Store store, final String capability) {
+        final Method method = findMethod(store.getClass(), "hasCapability", String.class);
+        if (method == null) {
+            return false;
+        }
+
+        try {
+            return Boolean.TRUE.equals(method.invoke(store, capability));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            LOGGER.log(Level.FINE, "Unable to check capability " + capability, e);
+            return false;
+        }
+    }
+
+    static boolean supportsIdle(final Store store, final Folder folder) {
+        return hasCapability(store, "IDLE") && findMethod(folder.getClass(), "idle", boolean.class) != null;
+    }
+
+    /**
+     * Issues an IDLE command on the open folder, returning as soon as the server sends
+     * a notification (e.g. EXISTS) or another thread uses the folder.
+     */
+    static void idle(final Folder folder) throws MessagingException {
+        final Method method = findMethod(folder.getClass(), "idle", boolean.class);
+        if (method == null) {
+            throw new MessagingException("IDLE is not supported by " + folder.getClass().getName());
+        }
+
+        invoke(method, folder, true);
+    }
+
+    /**
+     * Whether the provider can negotiate COMPRESS=DEFLATE (RFC 4978) once the
+     * {@code mail.imap.compress.enable} property is set, as JavaMail 1.6 and later can.
+     */
+    static boolean supportsCompression(final Store store) {
+        try {
+            final Class<?> protocol = Class.forName("com.sun.mail.imap.protocol.IMAPProtocol", false, store.getClass().getClassLoader());
+            return findMethod(protocol, "compress") != null;
+        } catch (final ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Selects the folder with CONDSTORE enabled (RFC 7162), so that the server reports the
+     * HIGHESTMODSEQ of the mailbox. Needs a provider with CONDSTORE support, such as
+     * JavaMail 1.5.1 or later.
+     *
+     * @return false if the folder was not opened, because the server or provider lacks support
+     */
+    static boolean openWithCondStore(final Store store, final Folder folder, final int mode) throws MessagingException {
+        if (!hasCapability(store, "CONDSTORE")) {
+            return false;
+        }
+
+        try {
+            final Class<?> resyncData = Class.forName("com.sun.mail.imap.ResyncData", false, folder.getClass().getClassLoader());
+            final Method open = findMethod(folder.getClass(), "open", int.class, resyncData);
+            if (open == null) {
+                return false;
+            }
+
+            invoke(open, folder, mode, resyncData.getField("CONDSTORE").get(null));
+            return true;
+        } catch (final ClassNotFoundException | NoSuchFieldException | IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The HIGHESTMODSEQ of a folder opened with {@link #openWithCondStore}, which changes
+     * whenever a message is added, expunged or has its flags changed, or -1 if not available.
+     */
+    static long getHighestModSeq(final Store store, final Folder folder) {
+        if (!hasCapability(store, "CONDSTORE")) {
+            return -1;
+        }
+
+        final Method method = findMethod(folder.getClass(), "getHighestModSeq");
+        if (method == null) {
+            return -1;
+        }
+
+        try {
+            final Object modSeq = invoke(method, folder);
+            return modSeq instanceof Long ? (Long) modSeq : -1;
+        } catch (final MessagingException e) {
+            LOGGER.log(Level.FINE, "Unable to get HIGHESTMODSEQ", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Moves messages to another folder with a single UID MOVE where the server supports it,
+     * otherwise with a COPY and, given UIDPLUS, a UID EXPUNGE of just these messages.
+     *
+     * @return whether the messages were removed from the source folder; without MOVE or
+     * UIDPLUS they are only flagged as deleted, as expunging the whole folder could remove
+     * messages deleted by other clients
+     */
+    static boolean move(final Folder source, final Message[] messages, final Folder target) throws MessagingException {
+        if (messages.length == 0) {
+            return false;
+        }
+
+        final Store store = source.getStore();
+        final Method move = findMethod(source.getClass(), "moveMessages", Message[].class, Folder.class);
+        if (move != null && hasCapability(store, "MOVE")) {
+            invoke(move, source, messages, target);
+            return true;
+        }
+
+        source.copyMessages(messages, target);
+        source.setFlags(messages, new Flags(Flags.Flag.DELETED), true);
+
+        final Method expunge = findMethod(source.getClass(), "expunge", Message[].class);
+        if (expunge != null && hasCapability(store, "UIDPLUS")) {
+            invoke(expunge, source, new Object[]{messages});
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Drops the envelope, structure and content a provider has cached for the messages. The
+     * JavaMail reference implementation otherwise keeps them for as long as the folder is open.
+     */
+    static void release(final Message[] messages) {
+        for (final Message message : messages) {
+            final Method method = findMethod(message.getClass(), "invalidateHeaders");
+            if (method == null) {
+                return;
+            }
+
+            try {
+                method.invoke(message);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                LOGGER.log(Level.FINE, "Unable to release message", e);
+                return;
+            }
+        }
+    }
+
+    private static Object invoke(final Method method, final Object target, final Object... args) throws MessagingException {
+        try {
+            return method.invoke(target, args);
+        } catch (final IllegalAccessException e) {
+            throw new MessagingException("Unable to call " + method.getName(), e);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof MessagingException) {
+                throw (MessagingException) e.getCause();
+            }
+
+            throw new MessagingException("Unable to call " + method.getName(), e);
+        }
+    }
+
+    private static Method findMethod(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
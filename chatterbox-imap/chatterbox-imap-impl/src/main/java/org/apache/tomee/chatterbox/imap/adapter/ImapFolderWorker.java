@@ -0,0 +1,635 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import javax.mail.FetchProfile;
+import javax.mail.Flags;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.UIDFolder;
+import javax.mail.internet.MimeMessage;
+import javax.mail.search.FlagTerm;
+import javax.mail.search.SearchTerm;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Syncs a single folder of an account. Each watched folder gets its own worker, scheduled
+ * on the resource adapter's WorkManager, so a slow folder or mailbox does not hold up
+ * the others.
+ */
+public class ImapFolderWorker implements Work {
+
+    private static final Logger LOGGER = Logger.getLogger(ImapFolderWorker.class.getName());
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_MAX_DELIVERY_ATTEMPTS = 5;
+    private static final long DEFAULT_MIN_POLL_INTERVAL = 1000;
+    private static final long DEFAULT_MAX_POLL_INTERVAL = 30000;
+
+    // RFC 2177: clients should re-issue IDLE at least every 29 minutes to avoid being logged off
+    private static final long IDLE_REFRESH = TimeUnit.MINUTES.toMillis(25);
+
+    private static final Flags SEEN = new Flags(Flags.Flag.SEEN);
+    private static final FlagTerm UNSEEN = new FlagTerm(SEEN, false);
+
+    private final ImapResourceAdapter resourceAdapter;
+    private final ImapAccount account;
+    private final String folderName;
+    private final ImapSession imapSession;
+    private final UidCheckpoint checkpoint;
+    private final PollSchedule schedule;
+    private final DeliveryAttempts attempts;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    // the state of the folder after the last completed sync
+    private long lastModSeq = -1;
+    private int lastMessageCount = -1;
+    private SearchTerm lastFilter;
+
+    // messages handed to the endpoints since the schedule was last told, not counting retries
+    private int arrivals;
+    private long highestAttemptedUid = -1;
+
+    public ImapFolderWorker(ImapResourceAdapter resourceAdapter, ImapAccount account, String folderName) {
+        this.resourceAdapter = resourceAdapter;
+        this.account = account;
+        this.folderName = folderName;
+        imapSession = new ImapSession(resourceAdapter, account, folderName);
+        checkpoint = UidCheckpoint.forFolder(resourceAdapter.getStateDirectory(),
+                account.getHost(), account.getUsername(), folderName);
+        schedule = new PollSchedule(getOrDefault(resourceAdapter.getMinPollInterval(), DEFAULT_MIN_POLL_INTERVAL),
+                getOrDefault(resourceAdapter.getMaxPollInterval(), DEFAULT_MAX_POLL_INTERVAL));
+        final Integer maxAttempts = resourceAdapter.getMaxDeliveryAttempts();
+        attempts = new DeliveryAttempts(maxAttempts == null ? DEFAULT_MAX_DELIVERY_ATTEMPTS : maxAttempts);
+    }
+
+    public PollSchedule getPollSchedule() {
+        return schedule;
+    }
+
+    ImapAccount getAccount() {
+        return account;
+    }
+
+    String getFolderName() {
+        return folderName;
+    }
+
+    @Override
+    public void run() {
+        // checked twice per interval and sent once the connection is unused for half of it,
+        // so a late tick never leaves the connection silent for much longer than the interval
+        final long keepAliveInterval = Math.min(imapSession.getKeepAliveInterval(), IDLE_REFRESH);
+        final long tick = Math.max(1, keepAliveInterval / 2);
+        final KeepAlive keepAlive = new KeepAlive(tick);
+        resourceAdapter.getTimer().schedule(keepAlive, tick, tick);
+
+        try {
+            // spread the first login of adapters started together across a polling interval
+            pause(ThreadLocalRandom.current().nextLong(schedule.getInterval()));
+
+            if (Boolean.TRUE.equals(resourceAdapter.getIdle())) {
+                idle();
+            }
+
+            poll();
+        } finally {
+            keepAlive.cancel();
+            imapSession.close();
+        }
+    }
+
+    private void poll() {
+        while (!stopped.get()) {
+            try {
+                processFolder(imapSession.getFolder());
+            } catch (MessagingException e) {
+                if (stopped.get()) {
+                    return;
+                }
+
+                LOGGER.log(Level.WARNING, String.format("Failed to sync %s %s %s: %s",
+                        account, folderName, e.getClass().getName(), e.getMessage()));
+                imapSession.invalidate();
+            }
+
+            final int arrived = arrivals;
+            arrivals = 0;
+
+            final long delay = imapSession.isOpen() ? schedule.next(arrived) : imapSession.getReconnectDelay();
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.log(Level.FINEST, "Next sync of " + account + " " + folderName + " in " + delay + " ms, " + schedule);
+            }
+
+            pause(delay);
+        }
+    }
+
+    /**
+     * Keeps the folder open and waits for the server to push new messages, falling back
+     * to polling if the server (or the JavaMail provider) does not support IDLE.
+     */
+    private void idle() {
+        while (!stopped.get()) {
+            try {
+                final Folder folder = imapSession.getFolder();
+                if (!ImapExtensions.supportsIdle(imapSession.getStore(), folder)) {
+                    LOGGER.log(Level.INFO, "IDLE is not supported for " + account + ", falling back to polling");
+                    return;
+                }
+
+                // the session's keep-alive interrupts the IDLE periodically, so it is re-issued here
+                while (!stopped.get() && folder.isOpen()) {
+                    processFolder(folder);
+                    schedule.record(arrivals);
+                    arrivals = 0;
+                    ImapExtensions.idle(folder);
+                }
+            } catch (MessagingException e) {
+                if (stopped.get()) {
+                    return;
+                }
+
+                LOGGER.log(Level.WARNING, String.format("IDLE failed for %s %s %s: %s",
+                        account, folderName, e.getClass().getName(), e.getMessage()));
+                imapSession.invalidate();
+                pause(imapSession.getReconnectDelay());
+            }
+        }
+    }
+
+    private void processFolder(Folder folder) throws MessagingException {
+        // only what at least one endpoint could match is transferred
+        final SearchTerm filter = resourceAdapter.getSearchTerm(account, folderName);
+        final boolean body = resourceAdapter.needsBody(account, folderName);
+
+        // with CONDSTORE, an unchanged HIGHESTMODSEQ and message count mean nothing was added,
+        // expunged or flagged since the last sync, so there is nothing to search or fetch
+        final int messageCount = folder.getMessageCount();
+        final long modSeq = ImapExtensions.getHighestModSeq(imapSession.getStore(), folder);
+        if (modSeq >= 0 && modSeq == lastModSeq && messageCount == lastMessageCount && Objects.equals(filter, lastFilter)) {
+            return;
+        }
+
+        if (!syncFolder(folder, filter, body)) {
+            // the messages held back have to be looked at again, changed or not
+            lastModSeq = -1;
+            return;
+        }
+
+        lastModSeq = modSeq;
+        lastMessageCount = messageCount;
+        lastFilter = filter;
+    }
+
+    /**
+     * @return false if messages were held back, to be delivered by the next sync
+     */
+    private boolean syncFolder(Folder folder, SearchTerm filter, boolean body) throws MessagingException {
+        if (!(folder instanceof UIDFolder)) {
+            final DeliveryProgress progress = new DeliveryProgress(checkpoint);
+            deliverInPages(folder, folder.search(SearchTerms.and(UNSEEN, filter)), body, -1, progress);
+            return progress.isComplete();
+        }
+
+        final UIDFolder uidFolder = (UIDFolder) folder;
+        final long uidValidity = uidFolder.getUIDValidity();
+
+        if (!checkpoint.isValid(uidValidity)) {
+            // first sync, or the mailbox was recreated: pick up the unread messages once
+            // and continue incrementally from the newest message in the folder
+            LOGGER.log(Level.INFO, "Starting new IMAP checkpoint for " + folder.getFullName() + " (UIDVALIDITY " + uidValidity + ")");
+            checkpoint.reset(uidValidity, getHighestUid(folder));
+            highestAttemptedUid = -1;
+
+            final DeliveryProgress progress = new DeliveryProgress(checkpoint);
+            try {
+                deliverInPages(folder, folder.search(SearchTerms.and(UNSEEN, filter)), body, 0, progress);
+                if (!progress.isComplete()) {
+                    // the unread messages are picked up once more by the next sync
+                    checkpoint.reset(uidValidity, -1);
+                }
+            } finally {
+                checkpoint.save();
+            }
+            return progress.isComplete();
+        }
+
+        // only what arrived since the last sync, a window of messages at a time, so that
+        // a large backlog never has to be held in memory at once
+        final long lastUid = checkpoint.getLastUid();
+        final int pageSize = getPageSize();
+
+        int count = folder.getMessageCount();
+        int start = firstMessageAfter(folder, lastUid, count);
+        while (start <= count && !stopped.get()) {
+            final Message[] window = folder.getMessages(start, Math.min(count, start + pageSize - 1));
+            final long windowUid = uidFolder.getUID(window[window.length - 1]);
+            final DeliveryProgress progress = new DeliveryProgress(checkpoint);
+            final boolean removed;
+
+            try {
+                final Message[] messages;
+                if (filter == null) {
+                    fetch(folder, window, body);
+                    messages = window;
+                } else {
+                    // the search runs on the server, so only the envelopes of its results
+                    // have to be transferred; the window needs no more than its UIDs
+                    fetchUids(folder, window);
+                    messages = folder.search(filter, window);
+                    fetch(folder, messages, body);
+                }
+
+                removed = deliver(folder, messages, lastUid, progress);
+
+                // the messages the search left out were of no interest to any endpoint
+                progress.done(windowUid);
+            } finally {
+                checkpoint.save();
+                ImapExtensions.release(window);
+            }
+
+            if (!progress.isComplete()) {
+                // later windows would move the checkpoint past the messages held back
+                return false;
+            }
+
+            if (removed) {
+                // moving messages out renumbers the rest of the folder
+                count = folder.getMessageCount();
+                start = firstMessageAfter(folder, windowUid, count);
+            } else {
+                start = window[window.length - 1].getMessageNumber() + 1;
+            }
+        }
+
+        return true;
+    }
+
+    private void deliverInPages(Folder folder, Message[] messages, boolean body, long lastUid, DeliveryProgress progress) throws MessagingException {
+        final int pageSize = getPageSize();
+
+        for (int start = 0; start < messages.length; start += pageSize) {
+            if (stopped.get()) {
+                progress.holdBack();
+                return;
+            }
+
+            final Message[] page = Arrays.copyOfRange(messages, start, Math.min(messages.length, start + pageSize));
+
+            try {
+                fetch(folder, page, body);
+                deliver(folder, page, lastUid, progress);
+            } finally {
+                ImapExtensions.release(page);
+            }
+        }
+    }
+
+    /**
+     * Delivers a page of messages and then disposes of them in batches: one STORE flagging
+     * the page as seen, and one MOVE each to the processed and failed folders, if configured.
+     *
+     * The checkpoint is only advanced once the messages have been disposed of, and not past
+     * any message which was never attempted.
+     *
+     * @return whether messages were moved out of the folder
+     */
+    private boolean deliver(Folder folder, Message[] messages, long lastUid, DeliveryProgress progress) throws MessagingException {
+        final UIDFolder uidFolder = folder instanceof UIDFolder ? (UIDFolder) folder : null;
+
+        final List<Message> pending = new ArrayList<>();
+        for (final Message message : messages) {
+            if (uidFolder == null || uidFolder.getUID(message) > lastUid) {
+                pending.add(message);
+            }
+        }
+
+        if (pending.isEmpty()) {
+            return false;
+        }
+
+        for (final Message message : pending) {
+            // messages held back earlier are delivered again, but did not newly arrive
+            final long uid = uidFolder == null ? -1 : uidFolder.getUID(message);
+            if (uidFolder == null || uid > highestAttemptedUid) {
+                arrivals++;
+                highestAttemptedUid = Math.max(highestAttemptedUid, uid);
+            }
+        }
+
+        final Message[] batch = pending.toArray(new Message[pending.size()]);
+        final boolean markAfterDelivery = Boolean.TRUE.equals(resourceAdapter.getMarkAfterDelivery());
+        if (!markAfterDelivery) {
+            folder.setFlags(batch, SEEN, true);
+        }
+
+        // the dispatch stage delivers in parallel, and blocks while it has too much to do
+        final MessageDeduplicator deduplicator = resourceAdapter.getDeduplicator();
+        final String[] keys = new String[batch.length];
+        final List<Future<Boolean>> outcomes = new ArrayList<>();
+        try {
+            for (int i = 0; i < batch.length; i++) {
+                keys[i] = getDeliveryKey(uidFolder, batch[i]);
+                outcomes.add(deduplicator.begin(keys[i]) ? resourceAdapter.dispatch(account, batch[i]) : null);
+            }
+        } catch (InterruptedException e) {
+            deduplicator.abort(keys[outcomes.size()]);
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+        }
+
+        final List<Message> delivered = new ArrayList<>();
+        final List<Message> failed = new ArrayList<>();
+        final Boolean[] results = new Boolean[batch.length];
+        for (int i = 0; i < outcomes.size(); i++) {
+            final Message message = batch[i];
+            final Boolean outcome;
+            if (outcomes.get(i) == null) {
+                LOGGER.log(Level.FINE, "Skipping duplicate message " + keys[i]);
+                outcome = true;
+            } else {
+                outcome = getOutcome(message, outcomes.get(i));
+                if (!Boolean.TRUE.equals(outcome)) {
+                    deduplicator.abort(keys[i]);
+                }
+            }
+
+            results[i] = outcome;
+            if (outcome != null) {
+                (outcome ? delivered : failed).add(message);
+            }
+        }
+
+        if (markAfterDelivery && !delivered.isEmpty()) {
+            // failed messages stay unseen, so they are not mistaken for handled mail
+            folder.setFlags(delivered.toArray(new Message[delivered.size()]), SEEN, true);
+        }
+
+        if (!failed.isEmpty()) {
+            LOGGER.log(Level.WARNING, failed.size() + " message(s) of " + account + " " + folderName + " could not be delivered");
+        }
+
+        final boolean processedMoved = move(folder, delivered, resourceAdapter.getProcessedFolder());
+        final boolean failedMoved = move(folder, failed, resourceAdapter.getFailedFolder());
+        final boolean hasFailedFolder = resourceAdapter.getFailedFolder() != null && !resourceAdapter.getFailedFolder().trim().isEmpty();
+
+        final List<Message> retried = new ArrayList<>();
+        for (int i = 0; i < batch.length; i++) {
+            final long uid = uidFolder == null ? -1 : uidFolder.getUID(batch[i]);
+            if (results[i] == null) {
+                // never attempted, as the adapter stopped, so the checkpoint must not pass it
+                progress.holdBack();
+                retried.add(batch[i]);
+                continue;
+            }
+
+            final String key = keys[i] == null ? folderName + " #" + batch[i].getMessageNumber() : keys[i];
+            if (results[i]) {
+                attempts.succeeded(key);
+                progress.done(uid);
+                continue;
+            }
+
+            // without a failed folder to keep them, failures are retried by the next syncs,
+            // until they run out of attempts
+            final boolean retry = !hasFailedFolder && attempts.failed(key);
+            if (retry) {
+                retried.add(batch[i]);
+            } else if (!hasFailedFolder) {
+                LOGGER.log(Level.WARNING, "Giving up on message " + key + " of " + account + " " + folderName
+                        + " after " + attempts.getMaxAttempts() + " failed attempts");
+            }
+            progress.failed(uid, retry);
+        }
+
+        if (!markAfterDelivery && !retried.isEmpty()) {
+            // flagged as seen before the delivery, but it has to be found again if the next
+            // sync searches for unseen mail, as the first one does
+            folder.setFlags(retried.toArray(new Message[retried.size()]), SEEN, false);
+        }
+
+        return processedMoved || failedMoved;
+    }
+
+    /**
+     * Identifies a message in the folder across sessions: by its Message-ID, or by its UID
+     * if it has none. The folder is part of the key, as endpoints may watch only some of the
+     * folders a message is filed in.
+     */
+    private String getDeliveryKey(UIDFolder uidFolder, Message message) throws MessagingException {
+        final String messageId = message instanceof MimeMessage ? ((MimeMessage) message).getMessageID() : null;
+        if (messageId != null && !messageId.trim().isEmpty()) {
+            return account + " " + folderName + " " + messageId.trim();
+        }
+
+        if (uidFolder != null) {
+            return account + " " + folderName + " " + uidFolder.getUIDValidity() + " " + uidFolder.getUID(message);
+        }
+
+        return null;
+    }
+
+    /**
+     * Waits for a delivery to complete.
+     *
+     * @return whether it succeeded, or null if it was never attempted
+     */
+    private Boolean getOutcome(Message message, Future<Boolean> outcome) {
+        try {
+            return Boolean.TRUE.equals(outcome.get());
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Unable to deliver message " + message.getMessageNumber() + " of " + account + " " + folderName, e.getCause());
+            return false;
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static boolean move(Folder folder, List<Message> messages, String targetName) throws MessagingException {
+        if (messages.isEmpty() || targetName == null || targetName.trim().isEmpty()) {
+            return false;
+        }
+
+        final Folder target = folder.getStore().getFolder(targetName.trim());
+        if (!target.exists() && !target.create(Folder.HOLDS_MESSAGES)) {
+            throw new MessagingException("Unable to create folder " + targetName);
+        }
+
+        return ImapExtensions.move(folder, messages.toArray(new Message[messages.size()]), target);
+    }
+
+    private int getPageSize() {
+        final Integer pageSize = resourceAdapter.getPageSize();
+        return pageSize == null || pageSize < 1 ? DEFAULT_PAGE_SIZE : pageSize;
+    }
+
+    private static long getOrDefault(final Long value, final long defaultValue) {
+        return value == null || value < 1 ? defaultValue : value;
+    }
+
+    private static void fetchUids(Folder folder, Message[] messages) throws MessagingException {
+        final FetchProfile fp = new FetchProfile();
+        fp.add(UIDFolder.FetchProfileItem.UID);
+        folder.fetch(messages, fp);
+    }
+
+    private static void fetch(Folder folder, Message[] messages, boolean body) throws MessagingException {
+        final FetchProfile fp = new FetchProfile();
+        if (folder instanceof UIDFolder) {
+            fp.add(UIDFolder.FetchProfileItem.UID);
+        }
+        fp.add(FetchProfile.Item.ENVELOPE);
+        if (body) {
+            // BODYSTRUCTURE, so that only the text part has to be fetched later
+            fp.add(FetchProfile.Item.CONTENT_INFO);
+        }
+        folder.fetch(messages, fp);
+    }
+
+    private static long getHighestUid(Folder folder) throws MessagingException {
+        final int count = folder.getMessageCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        return ((UIDFolder) folder).getUID(folder.getMessage(count));
+    }
+
+    /**
+     * The number of the first message with a UID above the given one, or count + 1 if there
+     * is none. UIDs ascend with the message numbers, so a binary search needs a handful of
+     * UID lookups even for large folders, and just one when nothing new has arrived.
+     */
+    private static int firstMessageAfter(Folder folder, long uid, int count) throws MessagingException {
+        final UIDFolder uidFolder = (UIDFolder) folder;
+        if (count == 0 || uidFolder.getUID(folder.getMessage(count)) <= uid) {
+            return count + 1;
+        }
+
+        int low = 1;
+        int high = count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (uidFolder.getUID(folder.getMessage(middle)) <= uid) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private synchronized void pause(long millis) {
+        if (stopped.get()) {
+            return;
+        }
+
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            // the WorkManager is shutting down
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ticks on the resource adapter's timer, which all folders share with the deduplicator,
+     * but sends the NOOP from a work item of its own, so that a connection which does not
+     * answer holds up nothing but its own keep-alive.
+     */
+    private final class KeepAlive extends TimerTask {
+
+        private final long unusedFor;
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+
+        private KeepAlive(final long unusedFor) {
+            this.unusedFor = unusedFor;
+        }
+
+        @Override
+        public void run() {
+            // the previous NOOP has not returned yet
+            if (!sending.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                resourceAdapter.getWorkManager().scheduleWork(new Work() {
+                    @Override
+                    public void run() {
+                        try {
+                            imapSession.keepAlive(unusedFor);
+                        } finally {
+                            sending.set(false);
+                        }
+                    }
+
+                    @Override
+                    public void release() {
+                        // the NOOP ends with the read timeout at the latest
+                    }
+                });
+            } catch (final WorkException e) {
+                sending.set(false);
+                LOGGER.log(Level.FINE, "Unable to schedule keep-alive for " + account + " " + folderName, e);
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        stopped.set(true);
+        synchronized (this) {
+            notifyAll();
+        }
+
+        // closing the session also wakes up the worker if it is blocked in IDLE
+        imapSession.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ImapFolderWorker{" +
+                "account=" + account +
+                ", folder='" + folderName + '\'' +
+                '}';
+    }
+}
@@ -16,24 +16,26 @@
  */
 package org.apache.tomee.chatterbox.imap.adapter;
 
+import org.apache.tomee.chatterbox.dispatch.DispatchPlan;
+import org.apache.tomee.chatterbox.dispatch.FanOut;
+import org.apache.tomee.chatterbox.dispatch.ListenerAnnotations;
+import org.apache.tomee.chatterbox.dispatch.MethodPattern;
 import org.apache.tomee.chatterbox.imap.api.Body;
 import org.apache.tomee.chatterbox.imap.api.BodyParam;
 import org.apache.tomee.chatterbox.imap.api.From;
 import org.apache.tomee.chatterbox.imap.api.FromParam;
 import org.apache.tomee.chatterbox.imap.api.InvokeAllMatches;
+import org.apache.tomee.chatterbox.imap.api.ListenerDispatcher;
 import org.apache.tomee.chatterbox.imap.api.Subject;
 import org.apache.tomee.chatterbox.imap.api.SubjectParam;
 import org.tomitribe.util.Longs;
-import org.tomitribe.util.editor.Converter;
 import org.tomitribe.util.hash.XxHash64;
 
 import javax.mail.Address;
-import javax.mail.BodyPart;
 import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Multipart;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
+import javax.mail.search.SearchTerm;
 import javax.resource.ResourceException;
 import javax.resource.spi.ActivationSpec;
 import javax.resource.spi.BootstrapContext;
@@ -41,23 +43,32 @@ import javax.resource.spi.ConfigProperty;
 import javax.resource.spi.Connector;
 import javax.resource.spi.ResourceAdapter;
 import javax.resource.spi.ResourceAdapterInternalException;
+import javax.resource.spi.UnavailableException;
 import javax.resource.spi.endpoint.MessageEndpoint;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
 import javax.transaction.xa.XAResource;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -72,9 +83,30 @@ public class ImapResourceAdapter implements ResourceAdapter {
 
     private static final Logger LOGGER = Logger.getLogger(ImapResourceAdapter.class.getName());
 
+    private static final long DEDUPLICATION_SAVE_INTERVAL = 60000;
+
+    // the inputs of a message, in the order they are passed to a DispatchPlan
+    static final int FROM = 0;
+    static final int SUBJECT = 1;
+    static final int BODY = 2;
+
+    static final ListenerAnnotations LISTENERS = new ListenerAnnotations(ListenerDispatcher.class,
+            InvokeAllMatches.class, InvokeAllMatches::parallel, InvokeAllMatches::timeout, method -> false,
+            ListenerAnnotations.Source.of(From.class, From::value, FromParam.class, FromParam::value),
+            ListenerAnnotations.Source.of(Subject.class, Subject::value, SubjectParam.class, SubjectParam::value),
+            ListenerAnnotations.Source.of(Body.class, Body::value, BodyParam.class, BodyParam::value));
+
     final Map<ImapActivationSpec, EndpointTarget> targets = new ConcurrentHashMap<>();
 
-    private ImapCheckThread worker;
+    private final Map<String, ImapFolderWorker> workers = new ConcurrentHashMap<>();
+    private final Map<String, FolderDiscoveryWork> discoveries = new ConcurrentHashMap<>();
+    private final List<Work> works = new CopyOnWriteArrayList<>();
+
+    private WorkManager workManager;
+    private Timer timer;
+    private ImapAccount defaultAccount;
+    private Dispatcher dispatcher;
+    private MessageDeduplicator deduplicator;
 
     @ConfigProperty
     private String host;
@@ -91,190 +123,371 @@ public class ImapResourceAdapter implements ResourceAdapter {
     @ConfigProperty(defaultValue = "imaps")
     private String protocol;
 
+    @ConfigProperty(defaultValue = "INBOX")
+    private String folders;
+
+    @ConfigProperty
+    private String accounts;
+
     @ConfigProperty(defaultValue = "FINE")
     private String deliveryLogLevel;
 
+    @ConfigProperty
+    private String smtpHost;
+
+    @ConfigProperty(defaultValue = "587")
+    private Integer smtpPort;
+
+    @ConfigProperty(defaultValue = "smtp")
+    private String smtpProtocol;
+
+    @ConfigProperty(defaultValue = "true")
+    private Boolean smtpStartTls;
+
+    @ConfigProperty
+    private String smtpUsername;
+
+    @ConfigProperty
+    private String smtpPassword;
+
+    @ConfigProperty(defaultValue = "false")
+    private Boolean idle;
+
+    @ConfigProperty
+    private String checkpointDirectory;
+
+    @ConfigProperty(defaultValue = "60000")
+    private Long keepAliveInterval;
+
+    @ConfigProperty(defaultValue = "300000")
+    private Long maxReconnectDelay;
+
+    @ConfigProperty(defaultValue = "false")
+    private Boolean compress;
+
+    @ConfigProperty(defaultValue = "1000")
+    private Long minPollInterval;
+
+    @ConfigProperty(defaultValue = "30000")
+    private Long maxPollInterval;
+
+    @ConfigProperty(defaultValue = "true")
+    private Boolean serverSideSearch;
+
+    @ConfigProperty(defaultValue = "65536")
+    private Integer maxBodySize;
+
+    @ConfigProperty(defaultValue = "100")
+    private Integer pageSize;
+
+    @ConfigProperty(defaultValue = "false")
+    private Boolean markAfterDelivery;
+
+    @ConfigProperty(defaultValue = "4")
+    private Integer dispatchConcurrency;
+
+    @ConfigProperty(defaultValue = "100")
+    private Integer dispatchQueueSize;
+
+    @ConfigProperty(defaultValue = "false")
+    private Boolean orderBySender;
+
+    @ConfigProperty(defaultValue = "10000")
+    private Integer deduplicationCapacity;
+
+    @ConfigProperty(defaultValue = "false")
+    private Boolean persistDeduplication;
+
+    @ConfigProperty
+    private String processedFolder;
+
+    @ConfigProperty
+    private String failedFolder;
+
+    @ConfigProperty(defaultValue = "5")
+    private Integer maxDeliveryAttempts;
+
     private Level level;
 
-    private static Object[] getValues(final Method method, final String sender, final String subject, final String message) {
+    public void start(BootstrapContext bootstrapContext) throws ResourceAdapterInternalException {
+        level = Level.parse(deliveryLogLevel);
+        LOGGER.info("Starting " + this);
 
-        if (method == null) {
-            return null;
+        workManager = bootstrapContext.getWorkManager();
+        try {
+            timer = bootstrapContext.createTimer();
+        } catch (final UnavailableException e) {
+            throw new ResourceAdapterInternalException("Unable to create timer", e);
         }
 
-        final Parameter[] parameters = method.getParameters();
-        if (parameters.length == 0) {
-            return new Object[0];
+        deduplicator = new MessageDeduplicator(deduplicationCapacity == null ? 0 : deduplicationCapacity,
+                Boolean.TRUE.equals(persistDeduplication) ? new File(getStateDirectory(), "imap-delivered.dat") : null);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                deduplicator.save();
+            }
+        }, DEDUPLICATION_SAVE_INTERVAL, DEDUPLICATION_SAVE_INTERVAL);
+
+        dispatcher = new Dispatcher(dispatchConcurrency == null ? 1 : dispatchConcurrency,
+                dispatchQueueSize == null ? 1 : dispatchQueueSize, Boolean.TRUE.equals(orderBySender));
+        for (final Work lane : dispatcher.getLanes()) {
+            schedule(lane);
         }
 
-        final Template senderTemplate = getTemplate(method.getAnnotation(From.class));
-        final Map<String, List<String>> senderParamValues = new HashMap<>();
-        if (senderTemplate != null) {
-            senderTemplate.match(sender, senderParamValues);
+        defaultAccount = new ImapAccount(protocol, host, port, username, password, FolderPattern.split(folders));
+
+        final List<ImapAccount> allAccounts = new ArrayList<>();
+        allAccounts.add(defaultAccount);
+        try {
+            allAccounts.addAll(ImapAccount.parseAll(accounts, protocol, port));
+        } catch (final IllegalArgumentException e) {
+            throw new ResourceAdapterInternalException("Invalid accounts: " + e.getMessage(), e);
         }
 
-        final Template messageTextTemplate = getTemplate(method.getAnnotation(Body.class));
-        final Map<String, List<String>> messageTextParamValues = new HashMap<>();
-        if (messageTextTemplate != null) {
-            messageTextTemplate.match(message, messageTextParamValues);
+        for (final ImapAccount account : allAccounts) {
+            for (final String folder : account.getFolders()) {
+                watch(account, folder);
+            }
         }
+    }
 
-        final Template subjectTemplate = getTemplate(method.getAnnotation(Subject.class));
-        final Map<String, List<String>> subjectParamValues = new HashMap<>();
-        if (subjectTemplate != null) {
-            subjectTemplate.match(subject, subjectParamValues);
+    public void stop() {
+        LOGGER.info("Stopping " + this);
+        for (final Work work : works) {
+            work.release();
         }
 
-        final Object[] values = new Object[parameters.length];
+        works.clear();
+        workers.clear();
+        discoveries.clear();
 
-        for (int i = 0; i < parameters.length; i++) {
-            final Parameter parameter = parameters[i];
+        if (timer != null) {
+            timer.cancel();
+        }
 
-            values[i] = null;
+        if (deduplicator != null) {
+            deduplicator.save();
+        }
+    }
 
-            if (parameter.isAnnotationPresent(FromParam.class)) {
-                final FromParam senderParam = parameter.getAnnotation(FromParam.class);
-                if (senderParam.value() == null || senderParam.value().length() == 0) {
-                    values[i] = Converter.convert(sender, parameter.getType(), null);
-                } else {
-                    final List<String> paramValues = senderParamValues.get(senderParam.value());
-                    final String paramValue = paramValues == null || paramValues.size() == 0 ? null : paramValues.get(0);
-                    values[i] = Converter.convert(paramValue, parameter.getType(), null);
-                }
+    /**
+     * Starts syncing a folder of an account, unless it is already watched or no longer asked
+     * for. Wildcard patterns are resolved against the account's folder list first.
+     */
+    synchronized void watch(final ImapAccount account, final String folder) throws ResourceAdapterInternalException {
+        final String name = FolderPattern.normalize(folder);
+        final String key = account + "/" + name;
+
+        if (FolderPattern.isWildcard(name)) {
+            if (!discoveries.containsKey(key)) {
+                final FolderDiscoveryWork discovery = new FolderDiscoveryWork(this, account, name);
+                discoveries.put(key, discovery);
+                schedule(discovery);
             }
+            return;
+        }
 
-            if (parameter.isAnnotationPresent(BodyParam.class)) {
-                final BodyParam messageTextParam = parameter.getAnnotation(BodyParam.class);
-                if (messageTextParam.value() == null || messageTextParam.value().length() == 0) {
-                    values[i] = Converter.convert(message, parameter.getType(), null);
-                } else {
-                    final List<String> paramValues = messageTextParamValues.get(messageTextParam.value());
-                    final String paramValue = paramValues == null || paramValues.size() == 0 ? null : paramValues.get(0);
-                    values[i] = Converter.convert(paramValue, parameter.getType(), null);
+        if (workers.containsKey(key) || !matchesAny(getFolderPatterns(account), name)) {
+            return;
+        }
+
+        final ImapFolderWorker worker = new ImapFolderWorker(this, account, name);
+        workers.put(key, worker);
+        LOGGER.info("Watching " + account + " folder " + name);
+        schedule(worker);
+    }
+
+    /**
+     * Stops syncing the folders of an account that neither the configuration nor any active
+     * endpoint asks for anymore.
+     */
+    private void unwatch(final ImapAccount account) {
+        final List<Work> unwanted = new ArrayList<>();
+        synchronized (this) {
+            final List<String> patterns = getFolderPatterns(account);
+
+            for (final Map.Entry<String, FolderDiscoveryWork> entry : discoveries.entrySet()) {
+                final FolderDiscoveryWork discovery = entry.getValue();
+                if (discovery.getAccount() == account && !patterns.contains(discovery.getPattern())) {
+                    discoveries.remove(entry.getKey());
+                    unwanted.add(discovery);
                 }
             }
 
-            if (parameter.isAnnotationPresent(SubjectParam.class)) {
-                final SubjectParam subjectParam = parameter.getAnnotation(SubjectParam.class);
-                if (subjectParam.value() == null || subjectParam.value().length() == 0) {
-                    values[i] = Converter.convert(subject, parameter.getType(), null);
-                } else {
-                    final List<String> paramValues = messageTextParamValues.get(subjectParam.value());
-                    final String paramValue = paramValues == null || paramValues.size() == 0 ? null : paramValues.get(0);
-                    values[i] = Converter.convert(paramValue, parameter.getType(), null);
+            for (final Map.Entry<String, ImapFolderWorker> entry : workers.entrySet()) {
+                final ImapFolderWorker worker = entry.getValue();
+                if (worker.getAccount() == account && !matchesAny(patterns, worker.getFolderName())) {
+                    LOGGER.info("No longer watching " + account + " folder " + worker.getFolderName());
+                    workers.remove(entry.getKey());
+                    unwanted.add(worker);
                 }
             }
         }
 
-        return values;
-    }
-
-    private static Template getTemplate(final Annotation annotation) {
-        if (annotation == null) {
-            return null;
+        // outside the lock, as closing a session waits for a command in progress on it
+        for (final Work work : unwanted) {
+            works.remove(work);
+            work.release();
         }
+    }
 
-        try {
-
-            final Method patternMethod = annotation.getClass().getMethod("value");
-            if (patternMethod == null) {
-                return null;
-            }
-
-            if (!String.class.equals(patternMethod.getReturnType())) {
-                return null;
+    /**
+     * The folders, or wildcard patterns, of the account that the configuration and the
+     * active endpoints ask to watch. Endpoints only name folders of the default account.
+     */
+    private List<String> getFolderPatterns(final ImapAccount account) {
+        final List<String> patterns = new ArrayList<>(account.getFolders());
+        if (account == defaultAccount) {
+            for (final EndpointTarget target : targets.values()) {
+                patterns.addAll(target.getFolders());
             }
-
-            final String pattern = (String) patternMethod.invoke(annotation);
-            return new Template(pattern);
-        } catch (final Exception e) {
-            // ignore
         }
+        return patterns;
+    }
 
-        return null;
+    private static boolean matchesAny(final List<String> patterns, final String folder) {
+        return patterns.stream().anyMatch(p -> FolderPattern.compile(p).matcher(folder).matches());
     }
 
-    private static String getMessageText(final Message message) {
+    private void schedule(final Work work) throws ResourceAdapterInternalException {
+        works.add(work);
         try {
-            if (message instanceof MimeMessage) {
-                final MimeMessage m = (MimeMessage) message;
-                Object contentObject = m.getContent();
-                if (contentObject instanceof Multipart) {
-                    BodyPart clearTextPart = null;
-
-                    Multipart content = (Multipart) contentObject;
-                    int count = content.getCount();
-                    for (int i = 0; i < count; i++) {
-                        BodyPart part = content.getBodyPart(i);
-                        if (part.isMimeType("text/plain")) {
-                            clearTextPart = part;
-                            break;
-                        }
-                    }
-
-                    if (clearTextPart != null) {
-                        return (String) clearTextPart.getContent();
-                    }
-
-                } else if (contentObject instanceof String) {
-                    return (String) contentObject;
-                } else {
-                    LOGGER.log(Level.WARNING, "Unable to get message text");
-                    return "";
-                }
-            }
-        } catch (IOException | MessagingException e) {
-            LOGGER.log(Level.WARNING, "Unable to get message text");
+            workManager.scheduleWork(work);
+        } catch (final WorkException e) {
+            works.remove(work);
+            throw new ResourceAdapterInternalException("Unable to schedule " + work, e);
         }
+    }
 
-        return "";
+    Timer getTimer() {
+        return timer;
     }
 
-    public void start(BootstrapContext bootstrapContext) throws ResourceAdapterInternalException {
-        level = Level.parse(deliveryLogLevel);
-        LOGGER.info("Starting " + this);
-        worker = new ImapCheckThread(this);
-        worker.start();
+    WorkManager getWorkManager() {
+        return workManager;
     }
 
-    public void stop() {
-        LOGGER.info("Stopping " + this);
-        worker.cancel();
+    MessageDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Where checkpoints and other state surviving restarts are kept.
+     */
+    File getStateDirectory() {
+        if (checkpointDirectory == null || checkpointDirectory.trim().isEmpty()) {
+            return new File(System.getProperty("java.io.tmpdir"), "chatterbox-imap");
+        }
+
+        return new File(checkpointDirectory);
     }
 
     public void endpointActivation(final MessageEndpointFactory messageEndpointFactory, final ActivationSpec activationSpec)
             throws ResourceException {
         final ImapActivationSpec imapActivationSpec = (ImapActivationSpec) activationSpec;
-        final MessageEndpoint messageEndpoint = messageEndpointFactory.createEndpoint(null);
 
         final Class<?> endpointClass = imapActivationSpec.getBeanClass() != null ? imapActivationSpec
                 .getBeanClass() : messageEndpointFactory.getEndpointClass();
 
-        final EndpointTarget target = new EndpointTarget(messageEndpoint, endpointClass);
+        final List<String> endpointFolders = FolderPattern.split(imapActivationSpec.getFolder());
+        final EndpointTarget target = new EndpointTarget(messageEndpointFactory, endpointClass, endpointFolders);
         targets.put(imapActivationSpec, target);
 
+        for (final String folder : endpointFolders) {
+            watch(defaultAccount, folder);
+        }
     }
 
     public void endpointDeactivation(final MessageEndpointFactory messageEndpointFactory, final ActivationSpec activationSpec) {
         final ImapActivationSpec imapActivationSpec = (ImapActivationSpec) activationSpec;
 
-        final EndpointTarget endpointTarget = targets.get(imapActivationSpec);
+        final EndpointTarget endpointTarget = targets.remove(imapActivationSpec);
         if (endpointTarget == null) {
             throw new IllegalStateException("No EndpointTarget to undeploy for ActivationSpec " + activationSpec);
         }
 
-        endpointTarget.messageEndpoint.release();
+        unwatch(defaultAccount);
     }
 
     public XAResource[] getXAResources(ActivationSpec[] activationSpecs) throws ResourceException {
         return new XAResource[0];
     }
 
-    public void process(final Message message) {
+    /**
+     * The IMAP SEARCH selecting the messages at least one endpoint listening on the folder
+     * could match, or {@code null} if that cannot be narrowed down.
+     */
+    SearchTerm getSearchTerm(final ImapAccount account, final String folder) {
+        if (!Boolean.TRUE.equals(serverSideSearch)) {
+            return null;
+        }
+
+        final List<SearchTerm> terms = new ArrayList<>();
+        for (final EndpointTarget endpoint : targets.values()) {
+            if (endpoint.accepts(account, folder)) {
+                terms.add(endpoint.getSearchTerm());
+            }
+        }
+
+        return SearchTerms.or(terms);
+    }
+
+    /**
+     * Whether any endpoint listening on the folder needs the message body, and therefore the
+     * message structure, to be fetched.
+     */
+    boolean needsBody(final ImapAccount account, final String folder) {
+        for (final EndpointTarget endpoint : targets.values()) {
+            if (endpoint.accepts(account, folder) && endpoint.needsBody()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Hands a message to the dispatch stage, blocking while its queue is full.
+     *
+     * @return the outcome of {@link #process(ImapAccount, Message)} once the message was delivered
+     */
+    Future<Boolean> dispatch(final ImapAccount account, final Message message) throws InterruptedException {
+        return dispatcher.dispatch(getSenderKey(message), () -> process(account, message));
+    }
+
+    private static String getSenderKey(final Message message) {
+        try {
+            final Address[] from = message.getFrom();
+            if (from == null || from.length == 0) {
+                return "";
+            }
+
+            return from[0] instanceof InternetAddress
+                    ? String.valueOf(((InternetAddress) from[0]).getAddress()).toLowerCase(Locale.ROOT)
+                    : from[0].toString();
+        } catch (final MessagingException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Delivers a message of the account to every endpoint listening on its folder.
+     *
+     * @return false if any of the endpoint invocations failed
+     */
+    public boolean process(final ImapAccount account, final Message message) {
+        final String folder = message.getFolder() == null ? null : FolderPattern.normalize(message.getFolder().getFullName());
+
+        boolean delivered = true;
         final Collection<EndpointTarget> endpoints = targets.values();
         for (final EndpointTarget endpoint : endpoints) {
-            endpoint.invoke(message);
+            if (endpoint.accepts(account, folder)) {
+                delivered &= endpoint.invoke(message);
+            }
         }
+
+        return delivered;
     }
 
     public String getHost() {
@@ -317,6 +530,234 @@ public class ImapResourceAdapter implements ResourceAdapter {
         this.protocol = protocol;
     }
 
+    public String getFolders() {
+        return folders;
+    }
+
+    public void setFolders(String folders) {
+        this.folders = folders;
+    }
+
+    public String getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(String accounts) {
+        this.accounts = accounts;
+    }
+
+    public Boolean getIdle() {
+        return idle;
+    }
+
+    public void setIdle(Boolean idle) {
+        this.idle = idle;
+    }
+
+    public String getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    public void setCheckpointDirectory(String checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
+
+    public Boolean getCompress() {
+        return compress;
+    }
+
+    public void setCompress(Boolean compress) {
+        this.compress = compress;
+    }
+
+    public Long getMinPollInterval() {
+        return minPollInterval;
+    }
+
+    public void setMinPollInterval(Long minPollInterval) {
+        this.minPollInterval = minPollInterval;
+    }
+
+    public Long getMaxPollInterval() {
+        return maxPollInterval;
+    }
+
+    public void setMaxPollInterval(Long maxPollInterval) {
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    /**
+     * The polling schedule of each watched folder, keyed by account and folder, giving the
+     * current interval and the recent arrival rate.
+     */
+    public Map<String, PollSchedule> getPollSchedules() {
+        final Map<String, PollSchedule> schedules = new TreeMap<>();
+        for (final Map.Entry<String, ImapFolderWorker> entry : workers.entrySet()) {
+            schedules.put(entry.getKey(), entry.getValue().getPollSchedule());
+        }
+        return schedules;
+    }
+
+    public Long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    public void setKeepAliveInterval(Long keepAliveInterval) {
+        this.keepAliveInterval = keepAliveInterval;
+    }
+
+    public Long getMaxReconnectDelay() {
+        return maxReconnectDelay;
+    }
+
+    public void setMaxReconnectDelay(Long maxReconnectDelay) {
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    public Integer getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public void setMaxBodySize(Integer maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public String getSmtpHost() {
+        return smtpHost == null || smtpHost.trim().isEmpty() ? host : smtpHost;
+    }
+
+    public void setSmtpHost(String smtpHost) {
+        this.smtpHost = smtpHost;
+    }
+
+    public Integer getSmtpPort() {
+        return smtpPort;
+    }
+
+    public void setSmtpPort(Integer smtpPort) {
+        this.smtpPort = smtpPort;
+    }
+
+    public String getSmtpProtocol() {
+        return smtpProtocol;
+    }
+
+    public void setSmtpProtocol(String smtpProtocol) {
+        this.smtpProtocol = smtpProtocol;
+    }
+
+    public Boolean getSmtpStartTls() {
+        return smtpStartTls;
+    }
+
+    public void setSmtpStartTls(Boolean smtpStartTls) {
+        this.smtpStartTls = smtpStartTls;
+    }
+
+    public String getSmtpUsername() {
+        return smtpUsername == null ? username : smtpUsername;
+    }
+
+    public void setSmtpUsername(String smtpUsername) {
+        this.smtpUsername = smtpUsername;
+    }
+
+    public String getSmtpPassword() {
+        return smtpPassword == null ? password : smtpPassword;
+    }
+
+    public void setSmtpPassword(String smtpPassword) {
+        this.smtpPassword = smtpPassword;
+    }
+
+    public Integer getDispatchConcurrency() {
+        return dispatchConcurrency;
+    }
+
+    public void setDispatchConcurrency(Integer dispatchConcurrency) {
+        this.dispatchConcurrency = dispatchConcurrency;
+    }
+
+    public Integer getDispatchQueueSize() {
+        return dispatchQueueSize;
+    }
+
+    public void setDispatchQueueSize(Integer dispatchQueueSize) {
+        this.dispatchQueueSize = dispatchQueueSize;
+    }
+
+    public Boolean getOrderBySender() {
+        return orderBySender;
+    }
+
+    public void setOrderBySender(Boolean orderBySender) {
+        this.orderBySender = orderBySender;
+    }
+
+    public Integer getDeduplicationCapacity() {
+        return deduplicationCapacity;
+    }
+
+    public void setDeduplicationCapacity(Integer deduplicationCapacity) {
+        this.deduplicationCapacity = deduplicationCapacity;
+    }
+
+    public Boolean getPersistDeduplication() {
+        return persistDeduplication;
+    }
+
+    public void setPersistDeduplication(Boolean persistDeduplication) {
+        this.persistDeduplication = persistDeduplication;
+    }
+
+    public Boolean getMarkAfterDelivery() {
+        return markAfterDelivery;
+    }
+
+    public void setMarkAfterDelivery(Boolean markAfterDelivery) {
+        this.markAfterDelivery = markAfterDelivery;
+    }
+
+    public String getProcessedFolder() {
+        return processedFolder;
+    }
+
+    public void setProcessedFolder(String processedFolder) {
+        this.processedFolder = processedFolder;
+    }
+
+    public String getFailedFolder() {
+        return failedFolder;
+    }
+
+    public void setFailedFolder(String failedFolder) {
+        this.failedFolder = failedFolder;
+    }
+
+    public Integer getMaxDeliveryAttempts() {
+        return maxDeliveryAttempts;
+    }
+
+    public void setMaxDeliveryAttempts(Integer maxDeliveryAttempts) {
+        this.maxDeliveryAttempts = maxDeliveryAttempts;
+    }
+
+    public Boolean getServerSideSearch() {
+        return serverSideSearch;
+    }
+
+    public void setServerSideSearch(Boolean serverSideSearch) {
+        this.serverSideSearch = serverSideSearch;
+    }
+
     @Override
     public String toString() {
         return "ImapResourceAdapter{" +
@@ -325,6 +766,8 @@ public class ImapResourceAdapter implements ResourceAdapter {
                 ", username='" + username + '\'' +
                 ", password='" + Longs.toHex(XxHash64.hash(password)) + '\'' +
                 ", protocol='" + protocol + '\'' +
+                ", folders='" + folders + '\'' +
+                ", idle=" + idle +
                 '}';
     }
 
@@ -359,15 +802,57 @@ public class ImapResourceAdapter implements ResourceAdapter {
     }
 
     public class EndpointTarget {
-        private final MessageEndpoint messageEndpoint;
+        private final MessageEndpointFactory messageEndpointFactory;
         private final Class<?> clazz;
-
-        public EndpointTarget(final MessageEndpoint messageEndpoint, final Class<?> clazz) {
-            this.messageEndpoint = messageEndpoint;
+        private final List<String> folderNames;
+        private final List<Pattern> folders;
+        private final SearchTerm searchTerm;
+        private final DispatchPlan plan;
+        private final Map<DispatchPlan.MethodPlan, MethodPattern[]> attachments = new HashMap<>();
+        private final boolean needsBody;
+
+        public EndpointTarget(final MessageEndpointFactory messageEndpointFactory, final Class<?> clazz, final List<String> folders) {
+            this.messageEndpointFactory = messageEndpointFactory;
             this.clazz = clazz;
+            this.folderNames = folders;
+            this.folders = folders.stream().map(FolderPattern::compile).collect(Collectors.toList());
+            this.searchTerm = SearchTerms.forEndpoint(clazz);
+            this.plan = DispatchPlan.forClass(clazz, LISTENERS);
+
+            for (final DispatchPlan.MethodPlan method : plan.getMethods()) {
+                if (Attachments.isBound(method.getMethod())) {
+                    attachments.put(method, Attachments.compile(method.getMethod()));
+                }
+            }
+
+            this.needsBody = !attachments.isEmpty() || plan.getMethods().stream().anyMatch(m -> m.uses(BODY));
+        }
+
+        public boolean needsBody() {
+            return needsBody;
+        }
+
+        public SearchTerm getSearchTerm() {
+            return searchTerm;
+        }
+
+        public List<String> getFolders() {
+            return folderNames;
+        }
+
+        /**
+         * Endpoints without folders configured on their activation spec receive mail from every
+         * watched folder of every account; the folders they do name are those of the default account.
+         */
+        public boolean accepts(final ImapAccount account, final String folder) {
+            if (folders.isEmpty()) {
+                return true;
+            }
+
+            return account == defaultAccount && folder != null && folders.stream().anyMatch(p -> p.matcher(folder).matches());
         }
 
-        public void invoke(Message message) {
+        public boolean invoke(Message message) {
 
             // Wrapper for convenient logging
             final Email email;
@@ -377,122 +862,93 @@ public class ImapResourceAdapter implements ResourceAdapter {
                 throw new IllegalStateException(e);
             }
 
-            // find matching method(s)
-
-            final List<Method> matchingMethods =
-                    Arrays.asList(clazz.getDeclaredMethods())
-                            .stream()
-                            .sorted((m1, m2) -> m1.toString().compareTo(m2.toString()))
-                            .filter(this::isPublic)
-                            .filter(this::isNotFinal)
-                            .filter(this::isNotAbstract)
-                            .filter(m -> filterSender(message, m))
-                            .filter(m -> filterSubject(message, m))
-                            .filter(m -> filterMessage(message, m))
-                            .collect(Collectors.toList());
-
-            if (matchingMethods == null || matchingMethods.size() == 0) {
+            final String sender;
+            final String subject;
+            try {
+                sender = InternetAddress.toString(message.getFrom());
+                subject = message.getSubject();
+            } catch (MessagingException e) {
                 LOGGER.log(Level.INFO, "No method to match " + email);
-                return;
+                return true;
             }
 
-            if (this.clazz.isAnnotationPresent(InvokeAllMatches.class)) {
-                for (final Method method : matchingMethods) {
-                    LOGGER.log(level, "Invoking method " + method.toString() + " for " + email);
-                    try {
-                        invoke(method, InternetAddress.toString(message.getFrom()),
-                                message.getSubject(),
-                                getMessageText(message));
-                    } catch (MessagingException e) {
-                        LOGGER.log(Level.SEVERE, "Unable to invoke method " + method.toString() + " for " + email);
-                    }
-                }
-            } else {
-                final Method method = matchingMethods.get(0);
-                LOGGER.log(level, "Invoking method " + method.toString() + " for " + email);
-                try {
-                    invoke(method, InternetAddress.toString(message.getFrom()),
-                            message.getSubject(),
-                            getMessageText(message));
-                } catch (MessagingException e) {
-                    LOGGER.log(Level.SEVERE, "Unable to invoke method " + method.toString() + " for " + email);
-                }
-            }
-        }
-
-        private boolean filterMessage(final Message message, final Method m) {
-            try {
-                final String messageBody = message.getContent().toString();
+            // find matching method(s)
 
-                return !m.isAnnotationPresent(Body.class) || "".equals(m.getAnnotation(Body.class).value())
-                        || templateMatches(m.getAnnotation(Body.class).value(), messageBody);
+            final List<DispatchPlan.MethodPlan> candidateMethods = plan.match(sender, subject);
 
-            } catch (IOException | MessagingException e) {
-                return false;
-            }
-        }
+            // the body is only downloaded if a method still in question looks at it
+            final String messageText = candidateMethods.stream().anyMatch(m -> m.uses(BODY))
+                    ? MessageText.extract(message, maxBodySize == null ? 0 : maxBodySize) : null;
 
-        private boolean filterSender(final Message message, final Method m) {
-            try {
-                final String sender = InternetAddress.toString(message.getFrom());
-
-                return !m.isAnnotationPresent(From.class) || "".equals(m.getAnnotation(From.class).value())
-                        || templateMatches(m.getAnnotation(From.class).value(), sender);
+            final List<DispatchPlan.MethodPlan> matchingMethods = plan.match(candidateMethods, BODY, messageText);
 
-            } catch (MessagingException e) {
-                return false;
+            if (matchingMethods.size() == 0) {
+                LOGGER.log(Level.INFO, "No method to match " + email);
+                return true;
             }
-        }
-
-        private boolean filterSubject(final Message message, final Method m) {
-            try {
-                final String subject = message.getSubject();
-
-                return !m.isAnnotationPresent(Subject.class) || "".equals(m.getAnnotation(Subject.class).value())
-                        || templateMatches(m.getAnnotation(Subject.class).value(), subject);
 
-            } catch (MessagingException e) {
-                return false;
-            }
-        }
+            boolean delivered = true;
+            if (plan.isParallel() && matchingMethods.size() > 1) {
+                final FanOut fanOut = new FanOut(workManager, plan.getTimeout());
+                for (final DispatchPlan.MethodPlan method : matchingMethods) {
+                    LOGGER.log(level, "Invoking method " + method + " for " + email);
+                    fanOut.add(method.toString(), () -> invoke(method, message, sender, subject, messageText));
+                }
 
-        private boolean templateMatches(final String pattern, final String input) {
-            try {
-                if (Pattern.matches(pattern, input)) {
-                    return true;
+                final FanOut.Report report = fanOut.run();
+                // calls still running are left to finish, redelivering would have them run twice
+                delivered = report.getOutcomes().stream().allMatch(o -> o.isTimedOut() || Boolean.TRUE.equals(o.getResult()));
+                LOGGER.log(report.isSuccessful() ? level : Level.WARNING, "Invoked " + report + " for " + email);
+            } else if (plan.isInvokeAllMatches()) {
+                for (final DispatchPlan.MethodPlan method : matchingMethods) {
+                    LOGGER.log(level, "Invoking method " + method + " for " + email);
+                    delivered &= invoke(method, message, sender, subject, messageText);
                 }
-            } catch (Exception e) {
-                // ignore
+            } else {
+                final DispatchPlan.MethodPlan method = matchingMethods.get(0);
+                LOGGER.log(level, "Invoking method " + method + " for " + email);
+                delivered = invoke(method, message, sender, subject, messageText);
             }
 
-            final Template template = new Template(pattern);
-            final Map<String, List<String>> values = new HashMap<>();
-            return template.match(input, values);
-        }
-
-        private boolean isPublic(final Method m) {
-            return Modifier.isPublic(m.getModifiers());
-        }
-
-        private boolean isNotAbstract(final Method m) {
-            return !Modifier.isAbstract(m.getModifiers());
-        }
-
-        private boolean isNotFinal(final Method m) {
-            return !Modifier.isFinal(m.getModifiers());
+            return delivered;
         }
 
-        private void invoke(final Method method, final String sender, final String subject, final String message) {
+        private boolean invoke(final DispatchPlan.MethodPlan plan, final Message mail, final String sender, final String subject, final String message) {
+            final Method method = plan.getMethod();
+            final MethodPattern[] patterns = this.attachments.get(plan);
+            final List<Closeable> attachments = new ArrayList<>();
             try {
+                // an endpoint per delivery, as folders are synced (and delivered) concurrently
+                final MessageEndpoint messageEndpoint = messageEndpointFactory.createEndpoint(null);
                 try {
                     messageEndpoint.beforeDelivery(method);
-                    final Object[] values = getValues(method, sender, subject, message);
-                    method.invoke(messageEndpoint, values);
+                    final Object[] arguments = plan.arguments(sender, subject, message);
+                    if (patterns != null) {
+                        attachments.addAll(Attachments.bind(method, patterns, mail, arguments));
+                    }
+                    plan.invoke(messageEndpoint, arguments);
                 } finally {
-                    messageEndpoint.afterDelivery();
+                    try {
+                        messageEndpoint.afterDelivery();
+                    } finally {
+                        messageEndpoint.release();
+                    }
                 }
+                return true;
             } catch (final NoSuchMethodException | ResourceException | IllegalAccessException | InvocationTargetException e) {
                 LOGGER.log(Level.SEVERE, "Unable to call method: " + method.toString());
+                return false;
+            } catch (final MessagingException | IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to read attachments for method: " + method.toString(), e);
+                return false;
+            } finally {
+                for (final Closeable attachment : attachments) {
+                    try {
+                        attachment.close();
+                    } catch (final IOException e) {
+                        // ignore
+                    }
+                }
             }
         }
     }
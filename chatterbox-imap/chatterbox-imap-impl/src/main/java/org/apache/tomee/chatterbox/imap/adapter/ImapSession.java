@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Folder;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Store;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A long lived, authenticated connection to one IMAP folder of an account. The store and
+ * folder stay open between sync cycles, are kept alive with NOOPs while unused, and are
+ * re-established with exponential backoff and jitter once the connection is found to be dead.
+ */
+public class ImapSession {
+
+    private static final Logger LOGGER = Logger.getLogger(ImapSession.class.getName());
+
+    private static final long INITIAL_RECONNECT_DELAY = 1000;
+    private static final long DEFAULT_KEEP_ALIVE_INTERVAL = 60000;
+    private static final long DEFAULT_MAX_RECONNECT_DELAY = 300000;
+    private static final int CONNECTION_TIMEOUT = 30000;
+    private static final int FETCH_SIZE = 16384;
+
+    private final ImapAccount account;
+    private final String folderName;
+    private final Session session;
+    private final long keepAliveInterval;
+    private final long maxReconnectDelay;
+    private final boolean compress;
+
+    private Store store;
+    private Folder folder;
+    private int failures;
+    private boolean closed;
+    private boolean checkedCompression;
+    private volatile long lastUsed;
+
+    public ImapSession(final ImapResourceAdapter resourceAdapter, final ImapAccount account, final String folderName) {
+        this.account = account;
+        this.folderName = folderName;
+        this.keepAliveInterval = getOrDefault(resourceAdapter.getKeepAliveInterval(), DEFAULT_KEEP_ALIVE_INTERVAL);
+        this.maxReconnectDelay = getOrDefault(resourceAdapter.getMaxReconnectDelay(), DEFAULT_MAX_RECONNECT_DELAY);
+        this.compress = Boolean.TRUE.equals(resourceAdapter.getCompress());
+        this.session = Session.getInstance(getProperties(account.getProtocol(), keepAliveInterval, resourceAdapter.getMaxBodySize(), compress));
+    }
+
+    private static Properties getProperties(final String protocol, final long keepAliveInterval, final Integer maxBodySize,
+                                            final boolean compress) {
+        final Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+
+        // a read timeout turns a silently dropped connection into an error instead of a hung
+        // worker; the connection is never left unused for much longer than the keep-alive
+        // interval, so healthy connections never hit it
+        setDefault(properties, "mail." + protocol + ".connectiontimeout", String.valueOf(CONNECTION_TIMEOUT));
+        setDefault(properties, "mail." + protocol + ".timeout", String.valueOf(keepAliveInterval * 2));
+
+        // body parts are fetched in blocks of this size, so a small body cap also limits the transfer
+        final int fetchSize = maxBodySize == null || maxBodySize <= 0 ? FETCH_SIZE : Math.min(maxBodySize, FETCH_SIZE);
+        setDefault(properties, "mail." + protocol + ".partialfetch", "true");
+        setDefault(properties, "mail." + protocol + ".fetchsize", String.valueOf(fetchSize));
+
+        // RFC 4978, negotiated by the provider after login if the server advertises it
+        if (compress) {
+            setDefault(properties, "mail." + protocol + ".compress.enable", "true");
+        }
+        return properties;
+    }
+
+    private static long getOrDefault(final Long value, final long defaultValue) {
+        return value == null || value < 1 ? defaultValue : value;
+    }
+
+    private static void setDefault(final Properties properties, final String key, final String value) {
+        if (properties.getProperty(key) == null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Returns the open folder, logging in and selecting it first if there is no live connection.
+     */
+    public synchronized Folder getFolder() throws MessagingException {
+        lastUsed = System.currentTimeMillis();
+        if (folder != null && folder.isOpen()) {
+            return folder;
+        }
+
+        disconnect();
+        connect();
+
+        try {
+            folder = store.getFolder(folderName);
+            if (!ImapExtensions.openWithCondStore(store, folder, Folder.READ_WRITE)) {
+                folder.open(Folder.READ_WRITE);
+            }
+        } catch (MessagingException e) {
+            failures++;
+            disconnect();
+            throw e;
+        }
+
+        if (failures > 0) {
+            LOGGER.log(Level.INFO, "Reconnected " + account + " after " + failures + " failed attempt(s)");
+        }
+
+        failures = 0;
+        return folder;
+    }
+
+    /**
+     * Lists the folders of the account matching an IMAP LIST pattern.
+     */
+    public synchronized Folder[] list(final String pattern) throws MessagingException {
+        if (store == null || !store.isConnected()) {
+            disconnect();
+            connect();
+        }
+
+        return store.getDefaultFolder().list(pattern);
+    }
+
+    private void connect() throws MessagingException {
+        if (closed) {
+            throw new MessagingException("Session closed");
+        }
+
+        try {
+            store = session.getStore(account.getProtocol());
+            store.connect(account.getHost(), account.getPort(), account.getUsername(), account.getPassword());
+        } catch (AuthenticationFailedException e) {
+            failures++;
+            disconnect();
+
+            if ("imap.gmail.com".equals(account.getHost())) {
+                LOGGER.log(Level.SEVERE, "Failed to Connect " + account + "  Ensure 'access to less secure apps' is turned on in your gmail account", e);
+            }
+            throw e;
+        } catch (MessagingException e) {
+            failures++;
+            disconnect();
+            throw e;
+        }
+
+        checkCompression();
+    }
+
+    private void checkCompression() {
+        if (!compress || checkedCompression) {
+            return;
+        }
+
+        checkedCompression = true;
+        if (!ImapExtensions.hasCapability(store, "COMPRESS=DEFLATE")) {
+            LOGGER.log(Level.INFO, "Compression requested, but not offered by the server of " + account);
+        } else if (!ImapExtensions.supportsCompression(store)) {
+            LOGGER.log(Level.WARNING, "Compression requested, but the JavaMail provider " + store.getClass().getName()
+                    + " does not support COMPRESS=DEFLATE, JavaMail 1.6 or later is required");
+        }
+    }
+
+    /**
+     * The longest time the connection should go without traffic.
+     */
+    public long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    public synchronized Store getStore() {
+        return store;
+    }
+
+    public synchronized boolean isOpen() {
+        return folder != null && folder.isOpen();
+    }
+
+    /**
+     * Drops the connection after an error, so that the next {@link #getFolder()} reconnects.
+     */
+    public synchronized void invalidate() {
+        failures++;
+        disconnect();
+    }
+
+    /**
+     * How long to wait before the next connection attempt: exponential in the number of
+     * consecutive failures, capped, with half of it randomized so that many adapters losing
+     * the same server do not all come back at the same moment.
+     */
+    public synchronized long getReconnectDelay() {
+        final long base;
+        if (failures == 0) {
+            base = INITIAL_RECONNECT_DELAY;
+        } else {
+            base = Math.min(maxReconnectDelay, INITIAL_RECONNECT_DELAY << Math.min(failures - 1, 30));
+        }
+
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    /**
+     * Sends a NOOP if the folder has not been used for the given time. This keeps NAT devices
+     * and the server from dropping the connection, and also ends any IDLE in progress, which
+     * the worker then re-issues as RFC 2177 asks.
+     */
+    public void keepAlive(final long unusedFor) {
+        final Folder current;
+        synchronized (this) {
+            current = folder;
+        }
+
+        if (current == null || !current.isOpen() || System.currentTimeMillis() - lastUsed < unusedFor) {
+            return;
+        }
+
+        try {
+            lastUsed = System.currentTimeMillis();
+            current.getMessageCount();
+        } catch (MessagingException e) {
+            // the worker finds out on its next command and reconnects
+            LOGGER.log(Level.FINE, "Keep-alive failed for " + account, e);
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        disconnect();
+    }
+
+    private void disconnect() {
+        if (folder != null) {
+            try {
+                if (folder.isOpen()) {
+                    folder.close(false);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Unable to close folder", e);
+            }
+            folder = null;
+        }
+
+        if (store != null) {
+            try {
+                store.close();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Unable to close store", e);
+            }
+            store = null;
+        }
+    }
+}
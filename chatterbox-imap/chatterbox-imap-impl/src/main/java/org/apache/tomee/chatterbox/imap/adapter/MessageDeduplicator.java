@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.tomitribe.util.hash.XxHash64;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the most recently delivered messages, so that a message seen again (after a
+ * reconnect, a \Seen flag that did not stick, or a checkpoint held back) is not delivered
+ * twice. Only a 64 bit hash of each key is kept, in least recently used order and
+ * up to a fixed number of entries, so memory stays flat; a false positive needs a hash
+ * collision among those entries. Optionally the hashes are saved to a file, to survive restarts.
+ */
+public class MessageDeduplicator {
+
+    private static final Logger LOGGER = Logger.getLogger(MessageDeduplicator.class.getName());
+
+    private final int capacity;
+    private final File file;
+    private final Map<Long, Boolean> delivered;
+    private boolean dirty;
+
+    public MessageDeduplicator(final int capacity, final File file) {
+        this.capacity = capacity;
+        this.file = file;
+        this.delivered = new LinkedHashMap<Long, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Boolean> eldest) {
+                return size() > MessageDeduplicator.this.capacity;
+            }
+        };
+
+        if (file != null) {
+            load();
+        }
+    }
+
+    /**
+     * Records a delivery about to be made.
+     *
+     * @return false if the key was delivered (or is being delivered) already
+     */
+    public synchronized boolean begin(final String key) {
+        if (key == null || capacity <= 0) {
+            return true;
+        }
+
+        dirty = true;
+        return delivered.put(hash(key), Boolean.TRUE) == null;
+    }
+
+    /**
+     * Forgets a delivery that failed or never happened, so that it can be retried.
+     */
+    public synchronized void abort(final String key) {
+        if (key == null || capacity <= 0) {
+            return;
+        }
+
+        dirty |= delivered.remove(hash(key)) != null;
+    }
+
+    public synchronized int size() {
+        return delivered.size();
+    }
+
+    public synchronized void save() {
+        if (file == null || !dirty) {
+            return;
+        }
+
+        try {
+            final File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+
+            final File temp = new File(directory, file.getName() + ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                // oldest first, so that loading restores the same order
+                for (final Long hash : delivered.keySet()) {
+                    out.writeLong(hash);
+                }
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save delivered messages to " + file, e);
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            while (true) {
+                delivered.put(in.readLong(), Boolean.TRUE);
+            }
+        } catch (final EOFException e) {
+            // done
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable delivered messages file " + file, e);
+            delivered.clear();
+        }
+    }
+
+    private static long hash(final String key) {
+        return XxHash64.hash(key);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimePart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the plain text of a message without downloading the rest of it. The raw body is
+ * streamed from the server (in blocks of the provider's fetch size) through a
+ * {@link MimeTextScanner}, and the stream is closed as soon as the first text part has
+ * been read, or after a configurable number of bytes of it, so the remaining blocks are
+ * never requested.
+ */
+final class MessageText {
+
+    private static final Logger LOGGER = Logger.getLogger(MessageText.class.getName());
+
+    private MessageText() {
+        // no-op
+    }
+
+    /**
+     * @param maxBytes the most bytes of the (decoded) text part to read, or 0 for no limit
+     */
+    static String extract(final Part message, final int maxBytes) {
+        try {
+            final String text = scan(message, maxBytes);
+            if (text == null) {
+                LOGGER.log(Level.WARNING, "Unable to get message text");
+                return "";
+            }
+
+            return text;
+        } catch (IOException | MessagingException e) {
+            LOGGER.log(Level.WARNING, "Unable to get message text");
+            return "";
+        }
+    }
+
+    private static String scan(final Part message, final int maxBytes) throws IOException, MessagingException {
+        if (message instanceof Message && ((Message) message).getFolder() == null) {
+            // not read from a folder, so serializing it is cheap
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            message.writeTo(out);
+            return MimeTextScanner.scanMessage(new ByteArrayInputStream(out.toByteArray()), maxBytes);
+        }
+
+        // closing the stream early means the remaining partial FETCHes are never sent
+        if (message instanceof MimeMessage) {
+            try (final InputStream in = ((MimeMessage) message).getRawInputStream()) {
+                return MimeTextScanner.scanBody(in, message.getContentType(), ((MimePart) message).getEncoding(), maxBytes);
+            }
+        }
+
+        if (message instanceof MimeBodyPart) {
+            try (final InputStream in = ((MimeBodyPart) message).getRawInputStream()) {
+                return MimeTextScanner.scanBody(in, message.getContentType(), ((MimePart) message).getEncoding(), maxBytes);
+            }
+        }
+
+        try (final InputStream in = message.getInputStream()) {
+            return MimeTextScanner.scanBody(in, message.getContentType(), null, maxBytes);
+        }
+    }
+}
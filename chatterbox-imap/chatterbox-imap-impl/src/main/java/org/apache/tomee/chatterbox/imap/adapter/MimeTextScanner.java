@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.ContentDisposition;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the text of a message in a single pass over its raw MIME bytes, without building
+ * javax.mail parts and multiparts. Multipart boundaries are followed to any depth, the
+ * first text/plain part that is not an attachment is decoded (transfer encoding and
+ * charset) into a per-thread character buffer, and nothing after it is read, so the
+ * parts following the text are never downloaded.
+ */
+final class MimeTextScanner {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_LINE = 8192;
+    private static final int MAX_HEADERS = 65536;
+    private static final int MAX_DEPTH = 16;
+
+    // buffers grown beyond this for an unusually long text are not kept for the next message
+    private static final int MAX_RETAINED_CHARS = 65536;
+
+    private static final ThreadLocal<CharBuffer> CHARS = ThreadLocal.withInitial(() -> CharBuffer.allocate(BUFFER_SIZE));
+
+    private final InputStream in;
+    private final int maxBytes;
+    private final List<byte[]> boundaries = new ArrayList<>();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private final byte[] line = new byte[MAX_LINE];
+    private int length;
+    private boolean complete = true;
+    private boolean lineStart;
+
+    // a delimiter line has been read but not yet handled by the multipart it belongs to
+    private boolean pending;
+    private int matched;
+    private boolean closing;
+
+    private MimeTextScanner(final InputStream in, final int maxBytes) {
+        this.in = in;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Scans a complete message, headers included, as returned by a FETCH of BODY[].
+     *
+     * @param maxBytes the most bytes of the (decoded) text to read, or 0 for no limit
+     * @return the text, or {@code null} if the message has no text part
+     */
+    static String scanMessage(final InputStream in, final int maxBytes) throws IOException {
+        final MimeTextScanner scanner = new MimeTextScanner(in, maxBytes);
+        final Headers headers = scanner.readHeaders();
+        return scanner.scanEntity(headers.contentType, headers.encoding);
+    }
+
+    /**
+     * Scans the body of a message or part whose headers are already known, such as the
+     * stream returned by {@code MimeMessage.getRawInputStream()}.
+     */
+    static String scanBody(final InputStream in, final String contentType, final String encoding, final int maxBytes) throws IOException {
+        return new MimeTextScanner(in, maxBytes).scanEntity(parseContentType(contentType), encoding);
+    }
+
+    private String scanEntity(final ContentType type, final String encoding) throws IOException {
+        if (type.match("multipart/*")) {
+            final String boundary = type.getParameter("boundary");
+            if (boundary == null || boundary.isEmpty() || boundaries.size() >= MAX_DEPTH) {
+                return null;
+            }
+
+            return scanMultipart(boundary);
+        }
+
+        // a single part message may be any kind of text, inside a multipart only plain text counts
+        if (boundaries.isEmpty() ? type.match("text/*") : type.match("text/plain")) {
+            return decode(new BodyStream(), encoding, type.getParameter("charset"));
+        }
+
+        return null;
+    }
+
+    private String scanMultipart(final String boundary) throws IOException {
+        final int level = boundaries.size();
+        boundaries.add(("--" + boundary).getBytes(StandardCharsets.ISO_8859_1));
+
+        try {
+            // skip the preamble
+            if (!skipToDelimiter()) {
+                return null;
+            }
+
+            while (pending && matched == level && !closing) {
+                pending = false;
+
+                final Headers headers = readHeaders();
+                if (!headers.attachment) {
+                    final String text = scanEntity(headers.contentType, headers.encoding);
+                    if (text != null) {
+                        return text;
+                    }
+                }
+
+                // a nested multipart stops at a delimiter, everything else has to be skipped
+                if (!pending && !skipToDelimiter()) {
+                    return null;
+                }
+            }
+
+            if (pending && matched == level) {
+                // the close delimiter of this multipart
+                pending = false;
+            }
+
+            return null;
+        } finally {
+            boundaries.remove(level);
+        }
+    }
+
+    private boolean skipToDelimiter() throws IOException {
+        while (readLine()) {
+            if (isDelimiter()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Whether the current line is the delimiter of one of the enclosing multiparts, in which
+     * case {@link #matched} and {@link #closing} say which one and whether it ends it.
+     */
+    private boolean isDelimiter() {
+        if (!lineStart) {
+            return false;
+        }
+
+        for (int i = boundaries.size() - 1; i >= 0; i--) {
+            final byte[] delimiter = boundaries.get(i);
+            if (length < delimiter.length || !startsWith(delimiter)) {
+                continue;
+            }
+
+            int end = delimiter.length;
+            final boolean close = end + 1 < length && line[end] == '-' && line[end + 1] == '-';
+            if (close) {
+                end += 2;
+            }
+
+            // only transport padding may follow, a longer boundary merely shares the prefix
+            while (end < length && (line[end] == ' ' || line[end] == '\t' || line[end] == '\r' || line[end] == '\n')) {
+                end++;
+            }
+
+            if (end == length) {
+                pending = true;
+                matched = i;
+                closing = close;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean startsWith(final byte[] delimiter) {
+        for (int i = 0; i < delimiter.length; i++) {
+            if (line[i] != delimiter[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the next line, including its line break, into {@link #line}. Lines longer than
+     * the buffer are returned in pieces, of which only the first is at the start of a line.
+     */
+    private boolean readLine() throws IOException {
+        lineStart = complete;
+        complete = false;
+        length = 0;
+
+        while (length < line.length) {
+            if (position == limit && !fill()) {
+                return length > 0;
+            }
+
+            final byte b = buffer[position++];
+            line[length++] = b;
+            if (b == '\n') {
+                complete = true;
+                return true;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        final int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private Headers readHeaders() throws IOException {
+        final StringBuilder block = new StringBuilder();
+        while (readLine()) {
+            if (lineStart && (length == 1 || length == 2 && line[0] == '\r') && line[length - 1] == '\n') {
+                break;
+            }
+
+            if (block.length() < MAX_HEADERS) {
+                block.append(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+            }
+        }
+
+        String contentType = null;
+        String encoding = null;
+        String disposition = null;
+
+        // unfold, then keep the few headers that matter here
+        for (final String header : block.toString().replaceAll("\r?\n[ \t]", " ").split("\r?\n")) {
+            final int colon = header.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+
+            final String name = header.substring(0, colon).trim();
+            final String value = header.substring(colon + 1).trim();
+            if ("Content-Type".equalsIgnoreCase(name)) {
+                contentType = value;
+            } else if ("Content-Transfer-Encoding".equalsIgnoreCase(name)) {
+                encoding = value;
+            } else if ("Content-Disposition".equalsIgnoreCase(name)) {
+                disposition = value;
+            }
+        }
+
+        return new Headers(parseContentType(contentType), encoding, isAttachment(disposition));
+    }
+
+    private static ContentType parseContentType(final String contentType) {
+        try {
+            if (contentType != null) {
+                return new ContentType(contentType);
+            }
+        } catch (final ParseException e) {
+            // as RFC 2045 asks for an invalid Content-Type
+        }
+
+        return new ContentType("text", "plain", null);
+    }
+
+    private static boolean isAttachment(final String disposition) {
+        try {
+            return disposition != null && "attachment".equalsIgnoreCase(new ContentDisposition(disposition).getDisposition());
+        } catch (final ParseException e) {
+            return false;
+        }
+    }
+
+    private String decode(final InputStream body, final String encoding, final String charset) throws IOException {
+        InputStream decoded = body;
+        if (encoding != null) {
+            try {
+                decoded = MimeUtility.decode(body, encoding.trim());
+            } catch (final MessagingException e) {
+                // an unknown transfer encoding, take the content as it is
+            }
+        }
+
+        final CharsetDecoder decoder = getCharset(charset).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CHARS.get();
+        chars.clear();
+
+        int remaining = maxBytes;
+        boolean truncated = false;
+        while (true) {
+            final int read = decoded.read(bytes.array(), bytes.position(), Math.min(bytes.remaining(), remaining));
+            if (read < 0) {
+                break;
+            }
+
+            bytes.position(bytes.position() + read);
+            remaining -= read;
+
+            bytes.flip();
+            chars = decode(decoder, bytes, chars, false);
+            bytes.compact();
+
+            if (remaining == 0) {
+                truncated = decoded.read() >= 0;
+                break;
+            }
+        }
+
+        // a character cut in half by the limit is dropped rather than replaced
+        if (!truncated) {
+            bytes.flip();
+            chars = decode(decoder, bytes, chars, true);
+            while (decoder.flush(chars).isOverflow()) {
+                chars = grow(chars);
+            }
+        }
+
+        chars.flip();
+        final String text = chars.toString();
+        CHARS.set(chars.capacity() <= MAX_RETAINED_CHARS ? chars : CharBuffer.allocate(BUFFER_SIZE));
+        return text;
+    }
+
+    private static CharBuffer decode(final CharsetDecoder decoder, final ByteBuffer bytes, CharBuffer chars, final boolean endOfInput) {
+        while (true) {
+            final CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (!result.isOverflow()) {
+                return chars;
+            }
+
+            chars = grow(chars);
+        }
+    }
+
+    private static CharBuffer grow(final CharBuffer chars) {
+        final CharBuffer larger = CharBuffer.allocate(chars.capacity() * 2);
+        chars.flip();
+        larger.put(chars);
+        return larger;
+    }
+
+    private static Charset getCharset(final String charset) {
+        try {
+            return Charset.forName(MimeUtility.javaCharset(charset == null ? "us-ascii" : charset));
+        } catch (final IllegalArgumentException e) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    /**
+     * The body of the current part: the lines up to the next delimiter, without the line
+     * break in front of the delimiter, which RFC 2046 counts as part of it.
+     */
+    private class BodyStream extends InputStream {
+
+        private final byte[] out = new byte[MAX_LINE + 2];
+        private int next;
+        private int end;
+
+        private final byte[] held = new byte[2];
+        private int heldLength;
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            if (next == end && !advance()) {
+                return -1;
+            }
+
+            return out[next++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (next == end && !advance()) {
+                return -1;
+            }
+
+            final int count = Math.min(len, end - next);
+            System.arraycopy(out, next, b, off, count);
+            next += count;
+            return count;
+        }
+
+        private boolean advance() throws IOException {
+            while (!done) {
+                if (!readLine() || isDelimiter()) {
+                    done = true;
+                    return false;
+                }
+
+                // emit the line break held back from the previous line and hold back this one
+                System.arraycopy(held, 0, out, 0, heldLength);
+                int content = length;
+                if (complete) {
+                    content--;
+                    if (content > 0 && line[content - 1] == '\r') {
+                        content--;
+                    }
+                }
+
+                System.arraycopy(line, 0, out, heldLength, content);
+                next = 0;
+                end = heldLength + content;
+
+                heldLength = length - content;
+                System.arraycopy(line, content, held, 0, heldLength);
+
+                if (end > 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static class Headers {
+
+        private final ContentType contentType;
+        private final String encoding;
+        private final boolean attachment;
+
+        private Headers(final ContentType contentType, final String encoding, final boolean attachment) {
+            this.contentType = contentType;
+            this.encoding = encoding;
+            this.attachment = attachment;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long a polling folder worker waits before its next sync. While messages
+ * arrive the interval shrinks towards the minimum (and at least to the expected gap between
+ * messages), while the folder stays quiet it doubles up to the maximum. Every delay is
+ * randomized by a quarter either way, so adapters polling the same server spread out
+ * rather than falling into step.
+ */
+public class PollSchedule {
+
+    // arrivals further back than a few of these hardly count towards the rate any more
+    private static final double RATE_WINDOW = TimeUnit.MINUTES.toMillis(5);
+
+    private final long minInterval;
+    private final long maxInterval;
+
+    private long interval;
+    private double arrivalRate;
+    private long lastUpdate;
+
+    public PollSchedule(final long minInterval, final long maxInterval) {
+        this.minInterval = Math.max(1, minInterval);
+        this.maxInterval = Math.max(this.minInterval, maxInterval);
+        this.interval = this.minInterval;
+        this.lastUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * Records the messages found by a sync and returns the delay before the next one.
+     */
+    public long next(final int arrived) {
+        return next(arrived, System.currentTimeMillis());
+    }
+
+    synchronized long next(final int arrived, final long now) {
+        record(arrived, now);
+
+        if (arrived > 0) {
+            long target = interval / 2;
+            if (arrivalRate > 0) {
+                target = Math.min(target, (long) (1000 / arrivalRate));
+            }
+            interval = Math.max(minInterval, target);
+        } else {
+            interval = Math.min(maxInterval, interval * 2);
+        }
+
+        return interval * 3 / 4 + ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+    }
+
+    /**
+     * Updates the arrival rate only, for workers that are told about new mail with IDLE.
+     */
+    public void record(final int arrived) {
+        synchronized (this) {
+            record(arrived, System.currentTimeMillis());
+        }
+    }
+
+    private void record(final int arrived, final long now) {
+        // an exponentially weighted moving average, weighted by the time since the last sync
+        final long elapsed = Math.max(1, now - lastUpdate);
+        final double weight = 1 - Math.exp(-elapsed / RATE_WINDOW);
+        arrivalRate += weight * (arrived * 1000.0 / elapsed - arrivalRate);
+        lastUpdate = now;
+    }
+
+    /**
+     * The current polling interval in milliseconds, before jitter.
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * The recent rate of new messages, per minute.
+     */
+    public synchronized double getArrivalRate() {
+        return arrivalRate * 60;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PollSchedule{" +
+                "interval=" + interval +
+                ", arrivalRate=" + String.format("%.2f", arrivalRate * 60) + "/min" +
+                '}';
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.apache.tomee.chatterbox.dispatch.MethodPattern;
+import org.apache.tomee.chatterbox.imap.api.From;
+import org.apache.tomee.chatterbox.imap.api.Subject;
+
+import javax.mail.search.AndTerm;
+import javax.mail.search.FromStringTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.SearchTerm;
+import javax.mail.search.SubjectTerm;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Turns the @From and @Subject patterns of listener methods into an IMAP SEARCH, so that
+ * mail no endpoint could match is never fetched. The search only needs to be a superset of
+ * what the endpoints accept (the patterns are still applied locally), so each pattern is
+ * reduced to a literal substring every match must contain. Wherever that cannot be proven,
+ * the search does not restrict anything. A {@code null} term means "everything".
+ */
+final class SearchTerms {
+
+    private SearchTerms() {
+        // no-op
+    }
+
+    /**
+     * The union of what the listener methods of an endpoint class accept.
+     */
+    static SearchTerm forEndpoint(final Class<?> clazz) {
+        final List<SearchTerm> terms = new ArrayList<>();
+        final Method[] methods = clazz.getDeclaredMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::toString));
+
+        for (final Method method : methods) {
+            final int modifiers = method.getModifiers();
+            if (!Modifier.isPublic(modifiers) || Modifier.isFinal(modifiers) || Modifier.isAbstract(modifiers)) {
+                continue;
+            }
+
+            final SearchTerm term = forMethod(method);
+            if (term == null) {
+                return null;
+            }
+
+            terms.add(term);
+        }
+
+        return or(terms);
+    }
+
+    static SearchTerm forMethod(final Method method) {
+        final From from = method.getAnnotation(From.class);
+        final Subject subject = method.getAnnotation(Subject.class);
+
+        final SearchTerm fromTerm = from == null ? null : forPattern(from.value(), FromStringTerm::new);
+        final SearchTerm subjectTerm = subject == null ? null : forPattern(subject.value(), SubjectTerm::new);
+
+        if (fromTerm == null) {
+            return subjectTerm;
+        }
+
+        if (subjectTerm == null) {
+            return fromTerm;
+        }
+
+        return new AndTerm(fromTerm, subjectTerm);
+    }
+
+    /**
+     * Endpoints match a value either as a plain regular expression or as a template, so a
+     * literal is only usable if both interpretations require one.
+     */
+    static SearchTerm forPattern(final String pattern, final Function<String, SearchTerm> factory) {
+        final MethodPattern compiled = MethodPattern.compile(pattern);
+        if (compiled == null || compiled.getRequiredLiterals().isEmpty()) {
+            return null;
+        }
+
+        final List<SearchTerm> terms = new ArrayList<>();
+        for (final String literal : compiled.getRequiredLiterals()) {
+            terms.add(factory.apply(literal));
+        }
+
+        return terms.size() == 1 ? terms.get(0) : new OrTerm(terms.toArray(new SearchTerm[terms.size()]));
+    }
+
+    /**
+     * Combines alternatives; {@code null} (unrestricted) wins over everything else.
+     */
+    static SearchTerm or(final Collection<SearchTerm> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        final Set<SearchTerm> unique = new LinkedHashSet<>();
+        for (final SearchTerm term : terms) {
+            if (term == null) {
+                return null;
+            }
+            unique.add(term);
+        }
+
+        if (unique.size() == 1) {
+            return unique.iterator().next();
+        }
+
+        return new OrTerm(unique.toArray(new SearchTerm[unique.size()]));
+    }
+
+    static SearchTerm and(final SearchTerm first, final SearchTerm second) {
+        if (first == null) {
+            return second;
+        }
+
+        if (second == null) {
+            return first;
+        }
+
+        return new AndTerm(first, second);
+    }
+}
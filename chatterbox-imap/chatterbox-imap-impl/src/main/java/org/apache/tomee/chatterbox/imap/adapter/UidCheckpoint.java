@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the UIDVALIDITY of a folder and the highest UID delivered from it, so the
+ * next sync only has to ask the server for UIDs above that. The state is kept in a small
+ * properties file, allowing a restarted adapter to resume where it stopped.
+ */
+public class UidCheckpoint {
+
+    private static final Logger LOGGER = Logger.getLogger(UidCheckpoint.class.getName());
+
+    private static final String UID_VALIDITY = "uidvalidity";
+    private static final String LAST_UID = "uid";
+
+    private final File file;
+    private long uidValidity = -1;
+    private long lastUid = -1;
+    private boolean dirty;
+
+    public UidCheckpoint(final File file) {
+        this.file = file;
+        load();
+    }
+
+    public static UidCheckpoint forFolder(final File directory, final String host, final String username, final String folder) {
+        final String key = username + "@" + host + "/" + folder;
+        return new UidCheckpoint(new File(directory, "imap-" + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".checkpoint"));
+    }
+
+    public synchronized boolean isValid(final long uidValidity) {
+        return this.uidValidity == uidValidity && lastUid >= 0;
+    }
+
+    public synchronized long getLastUid() {
+        return lastUid;
+    }
+
+    /**
+     * Starts over after the first sync or when the server reports a different UIDVALIDITY,
+     * in which case all previously recorded UIDs are meaningless.
+     */
+    public synchronized void reset(final long uidValidity, final long lastUid) {
+        this.uidValidity = uidValidity;
+        this.lastUid = lastUid;
+        dirty = true;
+    }
+
+    public synchronized void update(final long uid) {
+        if (uid > lastUid) {
+            lastUid = uid;
+            dirty = true;
+        }
+    }
+
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(UID_VALIDITY, Long.toString(uidValidity));
+        properties.setProperty(LAST_UID, Long.toString(lastUid));
+
+        try {
+            final File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+
+            // write a temporary file first so a crash never leaves a truncated checkpoint behind
+            final File temp = new File(directory, file.getName() + ".tmp");
+            try (final OutputStream os = Files.newOutputStream(temp.toPath())) {
+                properties.store(os, null);
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save IMAP checkpoint " + file, e);
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(file.toPath())) {
+            properties.load(is);
+            uidValidity = Long.parseLong(properties.getProperty(UID_VALIDITY, "-1"));
+            lastUid = Long.parseLong(properties.getProperty(LAST_UID, "-1"));
+        } catch (final IOException | NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable IMAP checkpoint " + file, e);
+            uidValidity = -1;
+            lastUid = -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UidCheckpoint{" +
+                "file=" + file +
+                ", uidValidity=" + uidValidity +
+                ", lastUid=" + lastUid +
+                '}';
+    }
+}
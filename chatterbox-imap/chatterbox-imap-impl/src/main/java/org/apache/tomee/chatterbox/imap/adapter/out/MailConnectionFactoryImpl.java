@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter.out;
+
+import org.apache.tomee.chatterbox.imap.api.MailConnection;
+import org.apache.tomee.chatterbox.imap.api.MailConnectionFactory;
+
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionManager;
+import java.util.logging.Logger;
+
+public class MailConnectionFactoryImpl implements MailConnectionFactory {
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = Logger.getLogger(MailConnectionFactoryImpl.class.getName());
+
+    private Reference reference;
+
+    private MailManagedConnectionFactory mcf;
+
+    private ConnectionManager connectionManager;
+
+    public MailConnectionFactoryImpl() {
+
+    }
+
+    public MailConnectionFactoryImpl(MailManagedConnectionFactory mcf, ConnectionManager cxManager) {
+        this.mcf = mcf;
+        this.connectionManager = cxManager;
+    }
+
+    @Override
+    public MailConnection getConnection() throws ResourceException {
+        log.finest("getConnection()");
+        return (MailConnection) connectionManager.allocateConnection(mcf, null);
+    }
+
+    @Override
+    public Reference getReference() throws NamingException {
+        log.finest("getReference()");
+        return reference;
+    }
+
+    @Override
+    public void setReference(Reference reference) {
+        log.finest("setReference()");
+        this.reference = reference;
+    }
+}
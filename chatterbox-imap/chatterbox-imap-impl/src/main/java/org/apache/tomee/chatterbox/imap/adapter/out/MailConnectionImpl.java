@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter.out;
+
+import org.apache.tomee.chatterbox.imap.api.MailConnection;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+public class MailConnectionImpl implements MailConnection {
+    private static Logger log = Logger.getLogger(MailConnectionImpl.class.getName());
+
+    private MailManagedConnection mc;
+
+    private MailManagedConnectionFactory mcf;
+
+    public MailConnectionImpl(MailManagedConnection mc, MailManagedConnectionFactory mcf) {
+        this.mc = mc;
+        this.mcf = mcf;
+    }
+
+    void setManagedConnection(MailManagedConnection mc) {
+        this.mc = mc;
+    }
+
+    @Override
+    public Session getSession() {
+        return mc.getSession();
+    }
+
+    @Override
+    public void send(final Message message) throws MessagingException {
+        mc.send(Collections.singletonList(message));
+    }
+
+    @Override
+    public void send(final List<? extends Message> messages) throws MessagingException {
+        mc.send(messages);
+    }
+
+    @Override
+    public void close() {
+        mc.closeHandle(this);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter.out;
+
+import org.apache.tomee.chatterbox.imap.adapter.ImapResourceAdapter;
+import org.apache.tomee.chatterbox.imap.api.MailConnection;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.resource.NotSupportedException;
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LocalTransaction;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionMetaData;
+import javax.security.auth.Subject;
+import javax.transaction.xa.XAResource;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An SMTP session that stays connected and authenticated while the container pools it, so
+ * that sending a message does not cost a TLS handshake and AUTH every time.
+ */
+public class MailManagedConnection implements ManagedConnection {
+
+    private static Logger log = Logger.getLogger(MailManagedConnection.class.getName());
+
+    private static final int CONNECTION_TIMEOUT = 30000;
+
+    private PrintWriter logwriter;
+
+    private MailManagedConnectionFactory mcf;
+
+    private List<ConnectionEventListener> listeners;
+
+    private MailConnectionImpl connection;
+
+    private final ImapResourceAdapter resourceAdapter;
+
+    private final Session session;
+
+    private Transport transport;
+
+    public MailManagedConnection(MailManagedConnectionFactory mcf) {
+        this.mcf = mcf;
+        this.logwriter = null;
+        this.listeners = Collections.synchronizedList(new ArrayList<ConnectionEventListener>(1));
+        this.connection = null;
+        this.resourceAdapter = (ImapResourceAdapter) mcf.getResourceAdapter();
+        this.session = Session.getInstance(getProperties(resourceAdapter));
+    }
+
+    private static Properties getProperties(final ImapResourceAdapter resourceAdapter) {
+        final String protocol = resourceAdapter.getSmtpProtocol();
+
+        final Properties properties = new Properties();
+        properties.putAll(System.getProperties());
+        setDefault(properties, "mail." + protocol + ".host", resourceAdapter.getSmtpHost());
+        setDefault(properties, "mail." + protocol + ".port", String.valueOf(resourceAdapter.getSmtpPort()));
+        setDefault(properties, "mail." + protocol + ".auth", String.valueOf(resourceAdapter.getSmtpUsername() != null));
+        setDefault(properties, "mail." + protocol + ".starttls.enable", String.valueOf(Boolean.TRUE.equals(resourceAdapter.getSmtpStartTls())));
+        setDefault(properties, "mail." + protocol + ".connectiontimeout", String.valueOf(CONNECTION_TIMEOUT));
+        setDefault(properties, "mail." + protocol + ".timeout", String.valueOf(CONNECTION_TIMEOUT));
+        return properties;
+    }
+
+    private static void setDefault(final Properties properties, final String key, final String value) {
+        if (value != null && properties.getProperty(key) == null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    public Object getConnection(Subject subject,
+                                ConnectionRequestInfo cxRequestInfo) throws ResourceException {
+        log.finest("getConnection()");
+        connection = new MailConnectionImpl(this, mcf);
+        return connection;
+    }
+
+    public void associateConnection(Object connection) throws ResourceException {
+        log.finest("associateConnection()");
+
+        if (connection == null)
+            throw new ResourceException("Null connection handle");
+
+        if (!(connection instanceof MailConnectionImpl))
+            throw new ResourceException("Wrong connection handle");
+
+        this.connection = (MailConnectionImpl) connection;
+        this.connection.setManagedConnection(this);
+    }
+
+    public void cleanup() throws ResourceException {
+        log.finest("cleanup()");
+    }
+
+    public synchronized void destroy() throws ResourceException {
+        log.finest("destroy()");
+
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.log(Level.FINE, "Unable to close SMTP transport", e);
+            }
+            transport = null;
+        }
+    }
+
+    public void addConnectionEventListener(ConnectionEventListener listener) {
+        log.finest("addConnectionEventListener()");
+
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is null");
+        }
+
+        listeners.add(listener);
+    }
+
+    public void removeConnectionEventListener(ConnectionEventListener listener) {
+        log.finest("removeConnectionEventListener()");
+        if (listener == null)
+            throw new IllegalArgumentException("Listener is null");
+        listeners.remove(listener);
+    }
+
+    void closeHandle(MailConnection handle) {
+        ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.CONNECTION_CLOSED);
+        event.setConnectionHandle(handle);
+        for (ConnectionEventListener cel : listeners) {
+            cel.connectionClosed(event);
+        }
+    }
+
+    private void connectionError(Exception e) {
+        ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.CONNECTION_ERROR_OCCURRED, e);
+        event.setConnectionHandle(connection);
+        for (ConnectionEventListener cel : listeners) {
+            cel.connectionErrorOccurred(event);
+        }
+    }
+
+    public PrintWriter getLogWriter() throws ResourceException {
+        log.finest("getLogWriter()");
+        return logwriter;
+    }
+
+    public void setLogWriter(PrintWriter out) throws ResourceException {
+        log.finest("setLogWriter()");
+        logwriter = out;
+    }
+
+    public LocalTransaction getLocalTransaction() throws ResourceException {
+        throw new NotSupportedException("getLocalTransaction() not supported");
+    }
+
+    public XAResource getXAResource() throws ResourceException {
+        throw new NotSupportedException("getXAResource() not supported");
+    }
+
+    public ManagedConnectionMetaData getMetaData() throws ResourceException {
+        log.finest("getMetaData()");
+        return new MailManagedConnectionMetaData(resourceAdapter.getSmtpUsername());
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * Sends the messages over this connection's transport, reconnecting first if the server
+     * dropped it while it sat in the pool. If sending fails, the messages before the failing
+     * one have been sent.
+     */
+    synchronized void send(final List<? extends Message> messages) throws MessagingException {
+        log.finest("send()");
+
+        final Transport current = getTransport();
+        try {
+            for (final Message message : messages) {
+                message.saveChanges();
+                current.sendMessage(message, message.getAllRecipients());
+            }
+        } catch (MessagingException e) {
+            if (!current.isConnected()) {
+                // have the container discard this connection rather than pool it again
+                connectionError(e);
+            }
+            throw e;
+        }
+    }
+
+    private Transport getTransport() throws MessagingException {
+        // isConnected() checks the SMTP connection with a NOOP
+        if (transport != null && transport.isConnected()) {
+            return transport;
+        }
+
+        if (transport != null) {
+            log.fine("Reconnecting SMTP transport");
+        }
+
+        transport = session.getTransport(resourceAdapter.getSmtpProtocol());
+        transport.connect(resourceAdapter.getSmtpHost(), resourceAdapter.getSmtpPort(),
+                resourceAdapter.getSmtpUsername(), resourceAdapter.getSmtpPassword());
+        return transport;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.apache.tomee.chatterbox.dispatch.MethodPattern;
+import org.apache.tomee.chatterbox.imap.api.Attachment;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.activation.DataHandler;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+public class AttachmentsTest {
+
+    @Test
+    public void findByFileName() throws Exception {
+        final MimeMessage message = message();
+
+        Assert.assertEquals("report.csv", Attachments.find(message, MethodPattern.compile(".*\\.csv")).getFileName());
+        Assert.assertEquals("report.csv", Attachments.find(message, MethodPattern.compile("{name}.csv")).getFileName());
+        Assert.assertEquals("notes.txt", Attachments.find(message, MethodPattern.compile("")).getFileName());
+        Assert.assertNull(Attachments.find(message, MethodPattern.compile(".*\\.pdf")));
+    }
+
+    @Test
+    public void bindStreams() throws Exception {
+        final Method method = Reports.class.getMethod("receive", InputStream.class, ReadableByteChannel.class, InputStream.class);
+        final Object[] values = new Object[3];
+        final List<Closeable> streams = Attachments.bind(method, Attachments.compile(method), message(), values);
+
+        Assert.assertEquals(2, streams.size());
+        Assert.assertNull(values[2]);
+
+        final byte[] notes = new byte[5];
+        Assert.assertEquals(5, ((InputStream) values[0]).read(notes));
+        Assert.assertEquals("notes", new String(notes, StandardCharsets.US_ASCII));
+
+        final ByteBuffer report = ByteBuffer.allocate(64);
+        ((ReadableByteChannel) values[1]).read(report);
+        Assert.assertEquals("a,b\n1,2\n", new String(report.array(), 0, report.position(), StandardCharsets.US_ASCII));
+
+        for (final Closeable stream : streams) {
+            stream.close();
+        }
+    }
+
+    private static MimeMessage message() throws Exception {
+        final MimeBodyPart text = new MimeBodyPart();
+        text.setText("See attached", "UTF-8");
+
+        final MimeBodyPart notes = new MimeBodyPart();
+        notes.setText("notes for the report", "UTF-8");
+        notes.setFileName("notes.txt");
+        notes.setDisposition(Part.ATTACHMENT);
+
+        final MimeBodyPart report = new MimeBodyPart();
+        report.setDataHandler(new DataHandler(new ByteArrayDataSource("a,b\n1,2\n".getBytes(StandardCharsets.US_ASCII), "text/csv")));
+        report.setFileName("report.csv");
+        report.setDisposition(Part.ATTACHMENT);
+
+        final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setContent(new MimeMultipart(text, notes, report));
+        message.saveChanges();
+        return message;
+    }
+
+    public static class Reports {
+
+        public void receive(@Attachment final InputStream notes,
+                            @Attachment("{name}.csv") final ReadableByteChannel report,
+                            @Attachment(".*\\.pdf") final InputStream missing) {
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeliveryAttemptsTest {
+
+    @Test
+    public void givenUpAfterMaxAttempts() {
+        final DeliveryAttempts attempts = new DeliveryAttempts(3);
+
+        Assert.assertTrue(attempts.failed("a"));
+        Assert.assertTrue(attempts.failed("a"));
+        Assert.assertTrue(attempts.failed("b"));
+        Assert.assertFalse(attempts.failed("a"));
+        Assert.assertEquals(1, attempts.size());
+
+        // a fresh start once given up on
+        Assert.assertTrue(attempts.failed("a"));
+    }
+
+    @Test
+    public void successForgetsFailures() {
+        final DeliveryAttempts attempts = new DeliveryAttempts(2);
+
+        Assert.assertTrue(attempts.failed("a"));
+        attempts.succeeded("a");
+        Assert.assertTrue(attempts.failed("a"));
+        Assert.assertFalse(attempts.failed("a"));
+    }
+
+    @Test
+    public void unlimited() {
+        final DeliveryAttempts attempts = new DeliveryAttempts(0);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(attempts.failed("a"));
+        }
+    }
+}
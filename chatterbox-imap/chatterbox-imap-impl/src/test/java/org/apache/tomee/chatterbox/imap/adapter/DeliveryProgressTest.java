@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.resource.spi.work.Work;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class DeliveryProgressTest {
+
+    @Test
+    public void cancelledDispatchHoldsCheckpoint() throws Exception {
+        final File directory = Files.createTempDirectory("checkpoint").toFile();
+        final UidCheckpoint checkpoint = UidCheckpoint.forFolder(directory, "localhost", "joe", "inbox");
+        checkpoint.reset(42, 10);
+
+        final Dispatcher dispatcher = new Dispatcher(1, 10, false);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        final List<Future<Boolean>> outcomes = new ArrayList<>();
+        outcomes.add(dispatcher.dispatch("", () -> true));
+        outcomes.add(dispatcher.dispatch("", () -> {
+            running.countDown();
+            return proceed.await(10, TimeUnit.SECONDS);
+        }));
+        outcomes.add(dispatcher.dispatch("", () -> true));
+        outcomes.add(dispatcher.dispatch("", () -> true));
+
+        for (final Work lane : dispatcher.getLanes()) {
+            final Thread thread = new Thread(lane);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // the adapter stops in the middle of the window
+        Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+        dispatcher.stop();
+        proceed.countDown();
+
+        final DeliveryProgress progress = new DeliveryProgress(checkpoint);
+        final long[] uids = {11, 12, 13, 14};
+        for (int i = 0; i < uids.length; i++) {
+            try {
+                outcomes.get(i).get(10, TimeUnit.SECONDS);
+                progress.done(uids[i]);
+            } catch (final CancellationException e) {
+                progress.holdBack();
+            }
+        }
+        progress.done(20);
+
+        Assert.assertFalse(progress.isComplete());
+        Assert.assertEquals(12, checkpoint.getLastUid());
+    }
+
+    @Test
+    public void completeWindowPassed() throws Exception {
+        final File directory = Files.createTempDirectory("checkpoint").toFile();
+        final UidCheckpoint checkpoint = UidCheckpoint.forFolder(directory, "localhost", "joe", "inbox");
+        checkpoint.reset(42, 10);
+
+        final DeliveryProgress progress = new DeliveryProgress(checkpoint);
+        progress.done(11);
+        progress.done(14);
+        progress.done(20);
+
+        Assert.assertTrue(progress.isComplete());
+        Assert.assertEquals(20, checkpoint.getLastUid());
+    }
+
+    @Test
+    public void failureRetriedUnlessMoved() throws Exception {
+        final File directory = Files.createTempDirectory("checkpoint").toFile();
+        final UidCheckpoint checkpoint = UidCheckpoint.forFolder(directory, "localhost", "joe", "inbox");
+        checkpoint.reset(42, 10);
+
+        final DeliveryProgress moved = new DeliveryProgress(checkpoint);
+        moved.done(11);
+        moved.failed(12, false);
+        moved.done(13);
+        Assert.assertTrue(moved.isComplete());
+        Assert.assertEquals(13, checkpoint.getLastUid());
+
+        final DeliveryProgress kept = new DeliveryProgress(checkpoint);
+        kept.done(14);
+        kept.failed(15, true);
+        kept.done(16);
+        kept.done(20);
+        Assert.assertFalse(kept.isComplete());
+        Assert.assertEquals(14, checkpoint.getLastUid());
+    }
+}
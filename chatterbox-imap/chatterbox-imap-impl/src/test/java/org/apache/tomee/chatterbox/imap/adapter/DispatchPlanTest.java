@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.apache.tomee.chatterbox.dispatch.DispatchPlan;
+import org.apache.tomee.chatterbox.imap.api.Body;
+import org.apache.tomee.chatterbox.imap.api.BodyParam;
+import org.apache.tomee.chatterbox.imap.api.From;
+import org.apache.tomee.chatterbox.imap.api.FromParam;
+import org.apache.tomee.chatterbox.imap.api.Subject;
+import org.apache.tomee.chatterbox.imap.api.SubjectParam;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.util.List;
+
+public class DispatchPlanTest {
+
+    private static DispatchPlan plan(final Class<?> clazz) {
+        return DispatchPlan.forClass(clazz, ImapResourceAdapter.LISTENERS);
+    }
+
+    @Test
+    public void candidateMethodsInStableOrder() {
+        final DispatchPlan plan = plan(Orders.class);
+        final List<DispatchPlan.MethodPlan> methods = plan.getMethods();
+
+        Assert.assertEquals(3, methods.size());
+        Assert.assertEquals("cancel", methods.get(0).getMethod().getName());
+        Assert.assertEquals("fallback", methods.get(1).getMethod().getName());
+        Assert.assertEquals("order", methods.get(2).getMethod().getName());
+        Assert.assertFalse(plan.isInvokeAllMatches());
+    }
+
+    @Test
+    public void matchesAndBinds() {
+        final DispatchPlan.MethodPlan order = plan(Orders.class).getMethods().get(2);
+
+        Assert.assertTrue(order.matches(ImapResourceAdapter.FROM, "joe@example.com"));
+        Assert.assertFalse(order.matches(ImapResourceAdapter.FROM, "joe@example.org"));
+        Assert.assertTrue(order.matches(ImapResourceAdapter.SUBJECT, "Order 42"));
+        Assert.assertFalse(order.matches(ImapResourceAdapter.SUBJECT, "Invoice 42"));
+        Assert.assertFalse(order.uses(ImapResourceAdapter.BODY));
+
+        final Object[] arguments = order.arguments("joe@example.com", "Order 42", null);
+        Assert.assertEquals("joe", arguments[0]);
+        Assert.assertEquals("42", arguments[1]);
+        Assert.assertEquals("Order 42", arguments[2]);
+    }
+
+    @Test
+    public void bodyMatchedSeparately() {
+        final DispatchPlan.MethodPlan cancel = plan(Orders.class).getMethods().get(0);
+
+        Assert.assertTrue(cancel.matches(ImapResourceAdapter.FROM, "anyone@example.org"));
+        Assert.assertTrue(cancel.matches(ImapResourceAdapter.SUBJECT, "anything"));
+        Assert.assertTrue(cancel.uses(ImapResourceAdapter.BODY));
+        Assert.assertTrue(cancel.matches(ImapResourceAdapter.BODY, "cancel order 7"));
+        Assert.assertFalse(cancel.matches(ImapResourceAdapter.BODY, "keep order 7"));
+        Assert.assertFalse(cancel.matches(ImapResourceAdapter.BODY, null));
+
+        Assert.assertEquals("7", cancel.arguments("anyone@example.org", "anything", "cancel order 7")[0]);
+    }
+
+    @Test
+    public void planMatchesOnlyCandidates() {
+        final DispatchPlan plan = plan(Orders.class);
+
+        final List<DispatchPlan.MethodPlan> envelope = plan.match("joe@example.com", "Order 42");
+        Assert.assertEquals(3, envelope.size());
+        Assert.assertEquals(2, plan.match("joe@example.org", "Order 42").size());
+
+        final List<DispatchPlan.MethodPlan> body = plan.match(envelope, ImapResourceAdapter.BODY, "cancel order 7");
+        Assert.assertEquals(3, body.size());
+        Assert.assertEquals(2, plan.match(envelope, ImapResourceAdapter.BODY, "keep order 7").size());
+        Assert.assertEquals("order", plan.match(envelope, ImapResourceAdapter.BODY, "keep order 7").get(1).getMethod().getName());
+    }
+
+    @Test
+    public void invokesWithPrimitiveParameters() throws Exception {
+        final DispatchPlan.MethodPlan add = plan(Calculator.class).getMethods().get(0);
+
+        final Object[] arguments = add.arguments("joe@example.com", "4 plus 7", null);
+        Assert.assertEquals("4", arguments[0]);
+        Assert.assertEquals("7", arguments[1]);
+        Assert.assertEquals(11, add.invoke(new Calculator(), arguments));
+    }
+
+    @Test(expected = InvocationTargetException.class)
+    public void conversionFailureReported() throws Exception {
+        final DispatchPlan.MethodPlan add = plan(Calculator.class).getMethods().get(0);
+        add.invoke(new Calculator(), add.arguments("joe@example.com", "four plus 7", null));
+    }
+
+    @Test
+    public void boxedAndOtherNumbers() throws Exception {
+        final DispatchPlan.MethodPlan total = plan(Invoices.class).getMethods().get(1);
+
+        final Object[] arguments = total.arguments("joe@example.com", "3 x 2.50", null);
+        Assert.assertEquals(new BigDecimal("7.50"), total.invoke(new Invoices(), arguments));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void abstractNumberLeftToConverter() throws Exception {
+        // not cast by the generated dispatcher, but converted first, as on the reflective path
+        final DispatchPlan.MethodPlan amount = plan(Invoices.class).getMethods().get(0);
+        amount.invoke(new Invoices(), amount.arguments("joe@example.com", "Amount 42", null));
+    }
+
+    public static class Invoices {
+
+        @Subject("Amount {amount}")
+        public Number amount(@SubjectParam("amount") final Number amount) {
+            return amount;
+        }
+
+        @Subject("{count} x {price}")
+        public BigDecimal total(@SubjectParam("count") final Integer count, @SubjectParam("price") final BigDecimal price) {
+            return price.multiply(BigDecimal.valueOf(count));
+        }
+    }
+
+    public static class Calculator {
+
+        @Subject("{a} plus {b}")
+        public int add(@SubjectParam("a") final int a, @SubjectParam("b") final int b) {
+            return a + b;
+        }
+    }
+
+    public static class Orders {
+
+        @From("{user}@example.com")
+        @Subject("Order {id}")
+        public void order(@FromParam("user") final String user, @SubjectParam("id") final int id, @SubjectParam final String subject) {
+        }
+
+        @Body("cancel order {id}")
+        public void cancel(@BodyParam("id") final String id) {
+        }
+
+        public void fallback() {
+        }
+
+        public final void notAListener() {
+        }
+
+        private void helper() {
+        }
+    }
+}
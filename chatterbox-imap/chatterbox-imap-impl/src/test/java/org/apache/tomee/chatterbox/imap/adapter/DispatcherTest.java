@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.resource.spi.work.Work;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DispatcherTest {
+
+    @Test
+    public void sameKeyInOrder() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(4, 100, true);
+        start(dispatcher);
+
+        final List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        final List<Future<Boolean>> outcomes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final int n = i;
+            outcomes.add(dispatcher.dispatch("joe@example.com", () -> delivered.add(n)));
+        }
+
+        for (final Future<Boolean> outcome : outcomes) {
+            Assert.assertTrue(outcome.get(10, TimeUnit.SECONDS));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(Integer.valueOf(i), delivered.get(i));
+        }
+
+        dispatcher.stop();
+    }
+
+    @Test
+    public void blocksWhenQueueIsFull() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(1, 1, false);
+        start(dispatcher);
+
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        dispatcher.dispatch("", () -> {
+            running.countDown();
+            return proceed.await(10, TimeUnit.SECONDS);
+        });
+        Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        // fills the queue while the lane is busy
+        dispatcher.dispatch("", () -> true);
+
+        final AtomicBoolean queued = new AtomicBoolean(false);
+        final Thread producer = new Thread(() -> {
+            try {
+                dispatcher.dispatch("", () -> true);
+                queued.set(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        producer.join(500);
+        Assert.assertFalse(queued.get());
+
+        proceed.countDown();
+        producer.join(10000);
+        Assert.assertTrue(queued.get());
+
+        dispatcher.stop();
+    }
+
+    private static void start(final Dispatcher dispatcher) {
+        for (final Work lane : dispatcher.getLanes()) {
+            final Thread thread = new Thread(lane);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
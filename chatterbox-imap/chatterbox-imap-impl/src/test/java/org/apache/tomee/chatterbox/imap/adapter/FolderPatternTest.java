@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+public class FolderPatternTest {
+
+    @Test
+    public void split() throws Exception {
+        Assert.assertEquals(Arrays.asList("INBOX", "Reports/*", "Archive"), FolderPattern.split(" inbox, Reports/* ,,Archive"));
+        Assert.assertTrue(FolderPattern.split(null).isEmpty());
+    }
+
+    @Test
+    public void wildcards() throws Exception {
+        final Pattern all = FolderPattern.compile("Reports/*");
+        Assert.assertTrue(all.matcher("Reports/2019").matches());
+        Assert.assertTrue(all.matcher("Reports/2019/June").matches());
+        Assert.assertFalse(all.matcher("Invoices/2019").matches());
+
+        final Pattern level = FolderPattern.compile("Reports/%");
+        Assert.assertTrue(level.matcher("Reports/2019").matches());
+        Assert.assertFalse(level.matcher("Reports/2019/June").matches());
+
+        Assert.assertTrue(FolderPattern.compile("inbox").matcher("INBOX").matches());
+        Assert.assertTrue(FolderPattern.compile("a.b(c)").matcher("a.b(c)").matches());
+        Assert.assertFalse(FolderPattern.compile("a.b").matcher("axb").matches());
+    }
+}
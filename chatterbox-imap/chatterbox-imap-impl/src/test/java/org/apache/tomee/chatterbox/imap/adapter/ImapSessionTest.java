@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class ImapSessionTest {
+
+    @Test
+    public void unsetIntervalsFallBackToDefaults() {
+        // outside a container the config properties keep no default value
+        final ImapResourceAdapter resourceAdapter = new ImapResourceAdapter();
+        final ImapAccount account = new ImapAccount("imap", "localhost", 143, "user", "secret",
+                Collections.singletonList("INBOX"));
+        final ImapSession session = new ImapSession(resourceAdapter, account, "INBOX");
+
+        Assert.assertEquals(60000, session.getKeepAliveInterval());
+
+        for (int i = 0; i < 20; i++) {
+            session.invalidate();
+        }
+        final long delay = session.getReconnectDelay();
+        Assert.assertTrue(String.valueOf(delay), delay >= 150000 && delay <= 300000);
+    }
+}
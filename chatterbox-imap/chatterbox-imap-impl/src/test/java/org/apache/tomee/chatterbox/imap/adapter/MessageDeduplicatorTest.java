@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class MessageDeduplicatorTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(2, null);
+
+        Assert.assertTrue(deduplicator.begin("<1@example.com>"));
+        Assert.assertTrue(deduplicator.begin("<2@example.com>"));
+        Assert.assertFalse(deduplicator.begin("<1@example.com>"));
+
+        Assert.assertTrue(deduplicator.begin("<3@example.com>"));
+        Assert.assertEquals(2, deduplicator.size());
+        Assert.assertFalse(deduplicator.begin("<1@example.com>"));
+        Assert.assertTrue(deduplicator.begin("<2@example.com>"));
+
+        deduplicator.abort("<2@example.com>");
+        Assert.assertTrue(deduplicator.begin("<2@example.com>"));
+    }
+
+    @Test
+    public void survivesRestart() throws Exception {
+        final File file = new File(Files.createTempDirectory("dedup").toFile(), "delivered.dat");
+
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(100, file);
+        deduplicator.begin("<1@example.com>");
+        deduplicator.save();
+
+        final MessageDeduplicator restored = new MessageDeduplicator(100, file);
+        Assert.assertFalse(restored.begin("<1@example.com>"));
+        Assert.assertTrue(restored.begin("<2@example.com>"));
+    }
+}
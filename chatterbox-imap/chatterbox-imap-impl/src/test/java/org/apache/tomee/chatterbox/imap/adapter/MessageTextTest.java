@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.util.Properties;
+
+public class MessageTextTest {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void plainTextPartOfMultipart() throws Exception {
+        final MimeBodyPart html = new MimeBodyPart();
+        html.setText("<p>Hello</p>", "UTF-8", "html");
+
+        final MimeBodyPart text = new MimeBodyPart();
+        text.setText("Gr\u00fc\u00dfe from the plain part", "UTF-8");
+
+        final MimeMessage message = new MimeMessage(session);
+        message.setContent(new MimeMultipart(html, text));
+        message.saveChanges();
+
+        Assert.assertEquals("Gr\u00fc\u00dfe from the plain part", MessageText.extract(message, 0));
+    }
+
+    @Test
+    public void truncatedAtMaxBytes() throws Exception {
+        final MimeMessage message = new MimeMessage(session);
+        message.setText("0123456789", "US-ASCII");
+        message.saveChanges();
+
+        Assert.assertEquals("0123", MessageText.extract(message, 4));
+        Assert.assertEquals("0123456789", MessageText.extract(message, 0));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class MimeTextScannerTest {
+
+    @Test
+    public void plainTextNestedInAlternative() throws Exception {
+        final String message = "Content-Type: multipart/mixed; boundary=outer\r\n" +
+                "\r\n" +
+                "preamble\r\n" +
+                "--outer\r\n" +
+                "Content-Type: multipart/alternative;\r\n" +
+                "  boundary=\"outer-inner\"\r\n" +
+                "\r\n" +
+                "--outer-inner\r\n" +
+                "Content-Type: text/html; charset=UTF-8\r\n" +
+                "\r\n" +
+                "<p>Hello</p>\r\n" +
+                "--outer-inner\r\n" +
+                "Content-Type: text/plain; charset=UTF-8\r\n" +
+                "Content-Transfer-Encoding: base64\r\n" +
+                "\r\n" +
+                "R3LDvMOfZQ==\r\n" +
+                "--outer-inner--\r\n" +
+                "--outer--\r\n";
+
+        Assert.assertEquals("Gr\u00fc\u00dfe", MimeTextScanner.scanMessage(stream(message), 0));
+    }
+
+    @Test
+    public void skipsTextAttachments() throws Exception {
+        final String message = "Content-Type: multipart/mixed; boundary=b\r\n" +
+                "\r\n" +
+                "--b\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Disposition: attachment; filename=notes.txt\r\n" +
+                "\r\n" +
+                "not this\r\n" +
+                "--b\r\n" +
+                "Content-Type: text/plain; charset=ISO-8859-1\r\n" +
+                "Content-Transfer-Encoding: quoted-printable\r\n" +
+                "\r\n" +
+                "first line=\r\n" +
+                " continued=E9\r\n" +
+                "second line\r\n" +
+                "--b--\r\n";
+
+        Assert.assertEquals("first line continued\u00e9\r\nsecond line", MimeTextScanner.scanMessage(stream(message), 0));
+    }
+
+    @Test
+    public void stopsReadingAfterText() throws Exception {
+        final char[] data = new char[1024 * 1024];
+        Arrays.fill(data, 'A');
+
+        final String message = "Content-Type: multipart/mixed; boundary=b\r\n" +
+                "\r\n" +
+                "--b\r\n" +
+                "\r\n" +
+                "text\r\n" +
+                "--b\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Transfer-Encoding: base64\r\n" +
+                "\r\n" +
+                new String(data) + "\r\n" +
+                "--b--\r\n";
+
+        final ByteArrayInputStream in = stream(message);
+        Assert.assertEquals("text", MimeTextScanner.scanMessage(in, 0));
+        Assert.assertTrue(in.available() > data.length - 64 * 1024);
+    }
+
+    @Test
+    public void noTextPart() throws Exception {
+        final String message = "Content-Type: multipart/mixed; boundary=b\r\n" +
+                "\r\n" +
+                "--b\r\n" +
+                "Content-Type: image/png\r\n" +
+                "\r\n" +
+                "xyz\r\n" +
+                "--b--\r\n";
+
+        Assert.assertNull(MimeTextScanner.scanMessage(stream(message), 0));
+    }
+
+    @Test
+    public void truncatesWithoutSplittingCharacters() throws Exception {
+        final InputStream in = stream("ab\u00e9");
+        Assert.assertEquals("ab", MimeTextScanner.scanBody(in, "text/plain; charset=UTF-8", "8bit", 3));
+    }
+
+    private static ByteArrayInputStream stream(final String message) {
+        return new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PollScheduleTest {
+
+    @Test
+    public void backsOffWhileIdle() {
+        final PollSchedule schedule = new PollSchedule(1000, 30000);
+
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            now += schedule.getInterval();
+            schedule.next(0, now);
+        }
+
+        Assert.assertEquals(30000, schedule.getInterval());
+        Assert.assertEquals(0, schedule.getArrivalRate(), 0);
+    }
+
+    @Test
+    public void shrinksWhileMessagesArrive() {
+        final PollSchedule schedule = new PollSchedule(1000, 30000);
+
+        long now = 0;
+        for (int i = 0; i < 5; i++) {
+            now += schedule.getInterval();
+            schedule.next(0, now);
+        }
+        Assert.assertEquals(30000, schedule.getInterval());
+
+        now += 30000;
+        schedule.next(50, now);
+        Assert.assertTrue(schedule.getInterval() < 15000);
+        Assert.assertTrue(schedule.getArrivalRate() > 0);
+
+        for (int i = 0; i < 5; i++) {
+            now += schedule.getInterval();
+            schedule.next(3, now);
+        }
+        Assert.assertEquals(1000, schedule.getInterval());
+    }
+
+    @Test
+    public void jitterStaysWithinAQuarter() {
+        final PollSchedule schedule = new PollSchedule(4000, 4000);
+
+        for (int i = 0; i < 1000; i++) {
+            final long delay = schedule.next(0, i);
+            Assert.assertTrue(delay >= 3000 && delay <= 5000);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.apache.tomee.chatterbox.imap.api.Body;
+import org.apache.tomee.chatterbox.imap.api.From;
+import org.apache.tomee.chatterbox.imap.api.Subject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.mail.search.AndTerm;
+import javax.mail.search.FromStringTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.SubjectTerm;
+
+public class SearchTermsTest {
+
+    @Test
+    public void unionOfEndpointMethods() throws Exception {
+        Assert.assertEquals(new OrTerm(
+                        new AndTerm(new FromStringTerm("@example.com"), new SubjectTerm("Order ")),
+                        new SubjectTerm("test report")),
+                SearchTerms.forEndpoint(Constrained.class));
+
+        Assert.assertNull(SearchTerms.forEndpoint(CatchAll.class));
+    }
+
+    public static class Constrained {
+
+        @From("{user}@example.com")
+        @Subject("Order {orderId}")
+        public void order() {
+        }
+
+        @Subject("test report")
+        @Body("ignored")
+        public void test() {
+        }
+    }
+
+    public static class CatchAll {
+
+        @Subject(".*test.*")
+        public void test() {
+        }
+
+        @Body(".*")
+        public void everythingElse() {
+        }
+    }
+}
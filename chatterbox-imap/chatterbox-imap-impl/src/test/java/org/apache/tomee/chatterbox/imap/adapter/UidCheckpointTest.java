@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.imap.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class UidCheckpointTest {
+
+    @Test
+    public void resumesAfterRestart() throws Exception {
+        final File directory = Files.createTempDirectory("checkpoint").toFile();
+
+        final UidCheckpoint checkpoint = UidCheckpoint.forFolder(directory, "localhost", "joe", "inbox");
+        Assert.assertFalse(checkpoint.isValid(42));
+
+        checkpoint.reset(42, 10);
+        checkpoint.update(11);
+        checkpoint.update(7);
+        checkpoint.save();
+
+        final UidCheckpoint restored = UidCheckpoint.forFolder(directory, "localhost", "joe", "inbox");
+        Assert.assertTrue(restored.isValid(42));
+        Assert.assertEquals(11, restored.getLastUid());
+    }
+
+    @Test
+    public void invalidatedByNewUidValidity() throws Exception {
+        final File directory = Files.createTempDirectory("checkpoint").toFile();
+
+        final UidCheckpoint checkpoint = UidCheckpoint.forFolder(directory, "localhost", "joe", "inbox");
+        checkpoint.reset(42, 10);
+        checkpoint.save();
+
+        Assert.assertFalse(UidCheckpoint.forFolder(directory, "localhost", "joe", "inbox").isValid(43));
+        Assert.assertFalse(UidCheckpoint.forFolder(directory, "localhost", "joe", "sent").isValid(42));
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a ListenerDispatcher for every bean with chatterbox listener methods, so that
+ * the resource adapter can call them directly instead of finding and invoking them through
+ * reflection. Put this module on the compile classpath of the application, for instance
+ * as a provided dependency, and javac picks the processor up by itself.
+ */
+@SupportedAnnotationTypes({
+        "org.apache.tomee.chatterbox.imap.api.*",
+        "org.apache.tomee.chatterbox.twitter.api.*",
+        "org.apache.tomee.chatterbox.xmpp.api.inflow.*"
+})
+public class ListenerProcessor extends AbstractProcessor {
+
+    private static final String SUFFIX = "_Dispatcher";
+
+    /**
+     * The connectors, by the package of their annotations.
+     */
+    private static final Map<String, String> DISPATCHERS = new LinkedHashMap<>();
+
+    static {
+        DISPATCHERS.put("org.apache.tomee.chatterbox.imap.api", "org.apache.tomee.chatterbox.imap.api.ListenerDispatcher");
+        DISPATCHERS.put("org.apache.tomee.chatterbox.twitter.api", "org.apache.tomee.chatterbox.twitter.api.ListenerDispatcher");
+        DISPATCHERS.put("org.apache.tomee.chatterbox.xmpp.api.inflow", "org.apache.tomee.chatterbox.xmpp.api.inflow.ListenerDispatcher");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        final Map<TypeElement, String> beans = new LinkedHashMap<>();
+
+        for (final TypeElement annotation : annotations) {
+            final String dispatcher = DISPATCHERS.get(packageOf(annotation).getQualifiedName().toString());
+            if (dispatcher == null) {
+                continue;
+            }
+
+            for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                final TypeElement bean = beanOf(element);
+                if (bean != null) {
+                    beans.put(bean, dispatcher);
+                }
+            }
+        }
+
+        for (final Map.Entry<TypeElement, String> bean : beans.entrySet()) {
+            generate(bean.getKey(), bean.getValue());
+        }
+
+        // other processors may look at the same annotations
+        return false;
+    }
+
+    /**
+     * The class declaring a listener method (or annotated with InvokeAllMatches), or
+     * {@code null} for annotations elsewhere, such as on parameters.
+     */
+    private static TypeElement beanOf(final Element element) {
+        if (element.getKind() == ElementKind.CLASS) {
+            return (TypeElement) element;
+        }
+
+        if (element.getKind() == ElementKind.METHOD && element.getEnclosingElement().getKind() == ElementKind.CLASS) {
+            return (TypeElement) element.getEnclosingElement();
+        }
+
+        return null;
+    }
+
+    private void generate(final TypeElement bean, final String dispatcher) {
+        if (processingEnv.getElementUtils().getTypeElement(dispatcher) == null) {
+            note(bean, dispatcher + " is not on the classpath");
+            return;
+        }
+
+        if (!isAccessible(bean)) {
+            note(bean, bean + " is not accessible from its package");
+            return;
+        }
+
+        final List<ExecutableElement> listeners = new ArrayList<>();
+        for (final ExecutableElement method : ElementFilter.methodsIn(bean.getEnclosedElements())) {
+            final Set<Modifier> modifiers = method.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+
+            if (throwsThrowable(method)) {
+                note(method, method + " declares Throwable");
+                return;
+            }
+
+            listeners.add(method);
+        }
+
+        final String packageName = packageOf(bean).getQualifiedName().toString();
+        final String simpleName = binaryName(bean).substring(packageName.isEmpty() ? 0 : packageName.length() + 1) + SUFFIX;
+        final String beanType = erasure(bean.asType());
+
+        try {
+            final JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    packageName.isEmpty() ? simpleName : packageName + "." + simpleName, bean);
+
+            try (final PrintWriter out = new PrintWriter(file.openWriter())) {
+                if (!packageName.isEmpty()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+
+                final String generated = generatedAnnotation();
+                if (generated != null) {
+                    out.println("@" + generated + "(\"" + getClass().getName() + "\")");
+                }
+                out.println("public final class " + simpleName + " implements " + dispatcher + " {");
+                out.println();
+                out.println("    @Override");
+                out.println("    public java.lang.reflect.Method[] getListeners() throws NoSuchMethodException {");
+                out.println("        return new java.lang.reflect.Method[]{");
+                for (int i = 0; i < listeners.size(); i++) {
+                    final ExecutableElement method = listeners.get(i);
+                    final StringBuilder lookup = new StringBuilder();
+                    lookup.append("                ").append(beanType).append(".class.getDeclaredMethod(\"")
+                            .append(method.getSimpleName()).append('"');
+                    for (final VariableElement parameter : method.getParameters()) {
+                        lookup.append(", ").append(erasure(parameter.asType())).append(".class");
+                    }
+                    lookup.append(')').append(i < listeners.size() - 1 ? "," : "");
+                    out.println(lookup);
+                }
+                out.println("        };");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+                out.println("    public Object invoke(final Object target, final int listener, final Object[] arguments) throws Exception {");
+                out.println("        switch (listener) {");
+                for (int i = 0; i < listeners.size(); i++) {
+                    final ExecutableElement method = listeners.get(i);
+                    final boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+
+                    final StringBuilder call = new StringBuilder();
+                    call.append(isStatic ? beanType : "((" + beanType + ") target)")
+                            .append('.').append(method.getSimpleName()).append('(');
+
+                    final List<? extends VariableElement> parameters = method.getParameters();
+                    for (int p = 0; p < parameters.size(); p++) {
+                        call.append(p == 0 ? "" : ", ").append(argument(parameters.get(p).asType(), "arguments[" + p + "]"));
+                    }
+                    call.append(')');
+
+                    out.println("            case " + i + ":");
+                    if (method.getReturnType().getKind() == TypeKind.VOID) {
+                        out.println("                " + call + ";");
+                        out.println("                return null;");
+                    } else {
+                        out.println("                return " + call + ";");
+                    }
+                }
+                out.println("            default:");
+                out.println("                throw new IllegalArgumentException(\"No listener \" + listener);");
+                out.println("        }");
+                out.println("    }");
+                out.println("}");
+            }
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to generate " + simpleName + ": " + e, bean);
+        }
+    }
+
+    /**
+     * The expression turning an argument into the parameter type: text is parsed into
+     * numbers, as ListenerDispatcher documents, anything else is only cast.
+     */
+    private String argument(final TypeMirror type, final String argument) {
+        final String text = "((String) " + argument + ")";
+        switch (type.getKind()) {
+            case BYTE:
+                return "Byte.parseByte" + text;
+            case SHORT:
+                return "Short.parseShort" + text;
+            case INT:
+                return "Integer.parseInt" + text;
+            case LONG:
+                return "Long.parseLong" + text;
+            case FLOAT:
+                return "Float.parseFloat" + text;
+            case DOUBLE:
+                return "Double.parseDouble" + text;
+            default:
+                break;
+        }
+
+        final String erasure = erasure(type);
+        switch (erasure) {
+            case "java.lang.String":
+                return text;
+            case "java.lang.Byte":
+            case "java.lang.Short":
+            case "java.lang.Integer":
+            case "java.lang.Long":
+            case "java.lang.Float":
+            case "java.lang.Double":
+                return "(" + argument + " == null ? null : " + erasure + ".valueOf" + text + ")";
+            default:
+                return "((" + erasure + ") " + argument + ")";
+        }
+    }
+
+    private String erasure(final TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private String binaryName(final TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private boolean throwsThrowable(final ExecutableElement method) {
+        for (final TypeMirror thrown : method.getThrownTypes()) {
+            if ("java.lang.Throwable".equals(erasure(thrown))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a class in the package of the bean can refer to it.
+     */
+    private static boolean isAccessible(final TypeElement bean) {
+        Element element = bean;
+        while (element instanceof TypeElement) {
+            final TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.PRIVATE)
+                    || type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            element = type.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private static PackageElement packageOf(final Element element) {
+        Element current = element;
+        while (!(current instanceof PackageElement)) {
+            current = current.getEnclosingElement();
+        }
+        return (PackageElement) current;
+    }
+
+    private void note(final Element element, final String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "No dispatcher generated, the resource adapter will use reflection: " + reason, element);
+    }
+
+    /**
+     * javax.annotation.Generated was moved to javax.annotation.processing in Java 9, and
+     * neither may be available.
+     */
+    private String generatedAnnotation() {
+        for (final String name : new String[]{"javax.annotation.processing.Generated", "javax.annotation.Generated"}) {
+            if (processingEnv.getElementUtils().getTypeElement(name) != null) {
+                return name;
+            }
+        }
+        return null;
+    }
+}
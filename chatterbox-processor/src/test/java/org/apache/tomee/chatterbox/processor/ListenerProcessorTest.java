@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.processor;
+
+import org.apache.tomee.chatterbox.imap.api.ListenerDispatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ListenerProcessorTest {
+
+    private static final String BEAN = "package org.superbiz;\n"
+            + "import org.apache.tomee.chatterbox.imap.api.*;\n"
+            + "public class OrderBean {\n"
+            + "    @Subject(\"{a} plus {b}\")\n"
+            + "    public int add(@SubjectParam(\"a\") int a, @SubjectParam(\"b\") Integer b) {\n"
+            + "        return a + (b == null ? 0 : b);\n"
+            + "    }\n"
+            + "    @From(\"{user}@example.com\")\n"
+            + "    public String greet(@FromParam(\"user\") String user, java.io.InputStream attachment) {\n"
+            + "        return \"Hello \" + user;\n"
+            + "    }\n"
+            + "    public void fallback() {\n"
+            + "    }\n"
+            + "    public final void notAListener() {\n"
+            + "    }\n"
+            + "    void helper() {\n"
+            + "    }\n"
+            + "}\n";
+
+    @Test
+    public void generatesDispatcher() throws Exception {
+        final File output = Files.createTempDirectory("processor").toFile();
+        final ListenerDispatcher dispatcher = (ListenerDispatcher) compile(output, "org.superbiz.OrderBean", BEAN)
+                .loadClass("org.superbiz.OrderBean" + ListenerDispatcher.SUFFIX).getDeclaredConstructor().newInstance();
+
+        final List<String> names = Arrays.asList("add", "greet", "fallback");
+        Assert.assertEquals(3, dispatcher.getListeners().length);
+        for (int i = 0; i < names.size(); i++) {
+            Assert.assertEquals(names.get(i), dispatcher.getListeners()[i].getName());
+        }
+
+        final Object bean = dispatcher.getListeners()[0].getDeclaringClass().getDeclaredConstructor().newInstance();
+        Assert.assertEquals(11, dispatcher.invoke(bean, 0, new Object[]{"4", "7"}));
+        Assert.assertEquals(4, dispatcher.invoke(bean, 0, new Object[]{"4", null}));
+        Assert.assertEquals("Hello joe", dispatcher.invoke(bean, 1, new Object[]{"joe", null}));
+        Assert.assertNull(dispatcher.invoke(bean, 2, new Object[0]));
+    }
+
+    @Test
+    public void nothingForPlainClasses() throws Exception {
+        final File output = Files.createTempDirectory("processor").toFile();
+        final ClassLoader loader = compile(output, "org.superbiz.Plain", "package org.superbiz;\npublic class Plain {\n    public void run() {\n    }\n}\n");
+
+        Assert.assertFalse(new File(output, "org/superbiz/Plain" + ListenerDispatcher.SUFFIX + ".class").exists());
+        Assert.assertNotNull(loader.loadClass("org.superbiz.Plain"));
+    }
+
+    private static ClassLoader compile(final File output, final String name, final String source) throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, null, null,
+                Arrays.asList("-d", output.getAbsolutePath(), "-classpath", System.getProperty("java.class.path")),
+                null, Collections.singletonList(file));
+        task.setProcessors(Collections.singletonList(new ListenerProcessor()));
+        Assert.assertTrue(task.call());
+
+        return new URLClassLoader(new URL[]{output.toURI().toURL()}, ListenerProcessorTest.class.getClassLoader());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.api;
+
+import java.lang.reflect.Method;
+
+/**
+ * Calls the listener methods of a bean without reflection. The chatterbox-processor
+ * annotation processor generates an implementation named after the bean with a
+ * {@code _Dispatcher} suffix, for instance {@code OrderBean_Dispatcher} for
+ * {@code OrderBean}; the resource adapter uses it when present, and otherwise finds and
+ * calls the listener methods reflectively.
+ */
+public interface ListenerDispatcher {
+
+    /**
+     * Suffix of the name of the generated implementation.
+     */
+    String SUFFIX = "_Dispatcher";
+
+    /**
+     * The public, non-final and non-abstract methods declared by the bean.
+     */
+    Method[] getListeners() throws NoSuchMethodException;
+
+    /**
+     * Calls a method of {@link #getListeners()} on the target.
+     *
+     * @param listener the position of the method in {@link #getListeners()}
+     * @param arguments the parameter values; those of type String, of a primitive number type
+     * or of its wrapper are passed as the text they are parsed from
+     * @return the result of the method, {@code null} for void methods
+     */
+    Object invoke(Object target, int listener, Object[] arguments) throws Exception;
+}
@@ -19,8 +19,25 @@
 
 package org.apache.tomee.chatterbox.twitter.api;
 
+import java.util.concurrent.CompletionStage;
+
 public interface TwitterConnection {
+    /**
+     * Tweets a message, waiting until it has been sent.
+     *
+     * @throws TweetException if the tweet could not be sent, or was not sent within the
+     * send timeout of the resource adapter
+     */
     public void sendMessage(final String message) throws TweetException;
 
+    /**
+     * Queues a message to be tweeted, without waiting for it to be sent. Tweets are sent
+     * within the rate limit of the account, and retried if Twitter is unavailable.
+     *
+     * @return completes with the id of the tweet, or with a {@link TweetException} if the
+     * tweet could not be sent or queued
+     */
+    public CompletionStage<Long> send(final String message);
+
     public void close();
 }
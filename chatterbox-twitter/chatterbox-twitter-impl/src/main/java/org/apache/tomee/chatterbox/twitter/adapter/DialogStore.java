@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import org.apache.tomee.chatterbox.twitter.api.Response;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * The dialogs waiting for the next tweet of a user, keyed by screen name. Most users never
+ * finish a dialog, so the store is bounded twice: a dialog left idle for longer than the
+ * timeout is dropped, and once the store is full the least recently used dialog makes way
+ * for a new one. Entries are kept in least recently used order, so expired ones are always
+ * at the head and are purged as new dialogs come in, without a background thread.
+ *
+ * Counts of hits, misses, evictions and expirations are kept for monitoring.
+ */
+public class DialogStore {
+
+    private final int capacity;
+    private final long timeout;
+    private final LongSupplier clock;
+    private final Map<String, Dialog> dialogs;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param capacity the number of dialogs kept at most, none if zero or less
+     * @param timeout  milliseconds after which an idle dialog is dropped, never if zero or less
+     */
+    public DialogStore(final int capacity, final long timeout) {
+        this(capacity, timeout, System::currentTimeMillis);
+    }
+
+    DialogStore(final int capacity, final long timeout, final LongSupplier clock) {
+        this.capacity = capacity;
+        this.timeout = timeout;
+        this.clock = clock;
+        this.dialogs = new LinkedHashMap<String, Dialog>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Dialog> eldest) {
+                if (size() > DialogStore.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Stores the response a user is expected to reply to, replacing any earlier one.
+     */
+    public synchronized void put(final String user, final Response response) {
+        if (capacity <= 0) {
+            return;
+        }
+
+        final long now = clock.getAsLong();
+        purge(now);
+        dialogs.put(user, new Dialog(response, now));
+    }
+
+    /**
+     * Removes and returns the response the user is replying to, if it has not expired.
+     */
+    public synchronized Response take(final String user) {
+        final Dialog dialog = dialogs.remove(user);
+        if (dialog == null) {
+            misses++;
+            return null;
+        }
+
+        if (isExpired(dialog, clock.getAsLong())) {
+            expirations++;
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return dialog.response;
+    }
+
+    public synchronized void remove(final String user) {
+        dialogs.remove(user);
+    }
+
+    public synchronized int size() {
+        return dialogs.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Dialogs dropped to make room for newer ones.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Dialogs dropped after being idle for longer than the timeout.
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    private void purge(final long now) {
+        final Iterator<Dialog> iterator = dialogs.values().iterator();
+        while (iterator.hasNext()) {
+            if (!isExpired(iterator.next(), now)) {
+                return;
+            }
+
+            iterator.remove();
+            expirations++;
+        }
+    }
+
+    private boolean isExpired(final Dialog dialog, final long now) {
+        return timeout > 0 && now - dialog.created > timeout;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DialogStore{" +
+                "size=" + dialogs.size() +
+                ", capacity=" + capacity +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", expirations=" + expirations +
+                '}';
+    }
+
+    private static final class Dialog {
+
+        private final Response response;
+        private final long created;
+
+        private Dialog(final Response response, final long created) {
+            this.response = response;
+            this.created = created;
+        }
+    }
+}
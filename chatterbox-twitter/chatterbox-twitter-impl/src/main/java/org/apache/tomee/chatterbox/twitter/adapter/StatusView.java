@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import twitter4j.Status;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the adapter needs of a status, worked out once when it arrives and then shared by
+ * the matching, binding and logging of every endpoint and dialog it is delivered to. The
+ * text is scanned in a single pass for the mentions and hashtags, and for the leading
+ * mentions of a reply, which are cut off the text the listener methods see.
+ */
+public final class StatusView {
+
+    private static final int MAX_SCREEN_NAME = 15;
+
+    private final long id;
+    private final String screenName;
+    private final String text;
+    private final String normalizedText;
+    private final List<String> mentions;
+    private final List<String> hashtags;
+
+    private StatusView(final long id, final String screenName, final String text) {
+        this.id = id;
+        this.screenName = screenName;
+        this.text = text;
+
+        final List<String> mentions = new ArrayList<>();
+        final List<String> hashtags = new ArrayList<>();
+        int start = 0;
+        boolean leading = true;
+
+        int i = 0;
+        while (i < text.length()) {
+            final char c = text.charAt(i);
+            final boolean boundary = i == 0 || !isWordChar(text.charAt(i - 1));
+
+            if (c == '@' && boundary) {
+                final int end = skipWord(text, i + 1);
+                final int length = end - i - 1;
+                if (length > 0 && length <= MAX_SCREEN_NAME) {
+                    mentions.add(text.substring(i + 1, end));
+
+                    // "@bot @bot do you like candy?" reads as "do you like candy?"
+                    final int next = skipWhitespace(text, end);
+                    if (leading && next > end) {
+                        start = next;
+                        i = next;
+                        continue;
+                    }
+                }
+                leading = false;
+                i = Math.max(end, i + 1);
+                continue;
+            }
+
+            if (c == '#' && boundary) {
+                final int end = skipHashtag(text, i + 1);
+                if (end > i + 1) {
+                    hashtags.add(text.substring(i + 1, end));
+                }
+                leading = false;
+                i = Math.max(end, i + 1);
+                continue;
+            }
+
+            leading = false;
+            i++;
+        }
+
+        this.normalizedText = text.substring(start);
+        this.mentions = Collections.unmodifiableList(mentions);
+        this.hashtags = Collections.unmodifiableList(hashtags);
+    }
+
+    public static StatusView of(final Status status) {
+        final String text = status.getText();
+        return new StatusView(status.getId(), status.getUser().getScreenName(), text == null ? "" : text);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getScreenName() {
+        return screenName;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * The text without the mentions a reply starts with.
+     */
+    public String getNormalizedText() {
+        return normalizedText;
+    }
+
+    /**
+     * The screen names mentioned anywhere in the text, without the '@'.
+     */
+    public List<String> getMentions() {
+        return mentions;
+    }
+
+    /**
+     * The hashtags in the text, without the '#'.
+     */
+    public List<String> getHashtags() {
+        return hashtags;
+    }
+
+    // the same characters as \w in a regular expression
+    private static boolean isWordChar(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static int skipWord(final String text, final int start) {
+        int i = start;
+        while (i < text.length() && isWordChar(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    // hashtags are not limited to ASCII, unlike screen names
+    private static int skipHashtag(final String text, final int start) {
+        int i = start;
+        while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+            i++;
+        }
+        return i;
+    }
+
+    // the same characters as \s in a regular expression
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static int skipWhitespace(final String text, final int start) {
+        int i = start;
+        while (i < text.length() && isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return "Tweet{" +
+                "user='" + screenName + '\'' +
+                ", text='" + text + '\'' +
+                '}';
+    }
+}
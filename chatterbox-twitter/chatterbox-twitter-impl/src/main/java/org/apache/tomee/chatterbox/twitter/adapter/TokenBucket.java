@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Spaces out calls to a rate limited API. The bucket holds up to a window's worth of
+ * permits and refills steadily over the window, so a burst up to the limit goes out at once
+ * and after that calls are spread evenly. The limits the server reports in its responses
+ * take precedence: when it says no calls are left, none are made until the reset time.
+ */
+public class TokenBucket {
+
+    private final int capacity;
+    private final double refillRate;
+    private final LongSupplier clock;
+
+    private double tokens;
+    private long refilled;
+    private long blockedUntil;
+
+    /**
+     * @param capacity the number of calls allowed per window, unlimited if zero or less
+     * @param window   the length of the window, in milliseconds
+     */
+    public TokenBucket(final int capacity, final long window) {
+        this(capacity, window, System::currentTimeMillis);
+    }
+
+    TokenBucket(final int capacity, final long window, final LongSupplier clock) {
+        this.capacity = capacity;
+        this.refillRate = window > 0 ? (double) capacity / window : Double.MAX_VALUE;
+        this.clock = clock;
+        this.tokens = capacity;
+        this.refilled = clock.getAsLong();
+    }
+
+    /**
+     * Takes a permit if one is available.
+     *
+     * @return 0 if a permit was taken, otherwise how many milliseconds to wait before asking again
+     */
+    public synchronized long tryAcquire() {
+        final long now = clock.getAsLong();
+        if (now < blockedUntil) {
+            return blockedUntil - now;
+        }
+
+        if (capacity <= 0) {
+            return 0;
+        }
+
+        tokens = Math.min(capacity, tokens + (now - refilled) * refillRate);
+        refilled = now;
+
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+
+        return Math.max(1, (long) Math.ceil((1 - tokens) / refillRate));
+    }
+
+    /**
+     * Applies the rate limit status reported by the server.
+     *
+     * @param remaining the calls left in the current window
+     * @param reset     when the window ends, in milliseconds since the epoch
+     */
+    public synchronized void update(final int remaining, final long reset) {
+        if (remaining <= 0) {
+            blockedUntil = Math.max(blockedUntil, reset);
+        } else {
+            tokens = Math.min(tokens, remaining);
+        }
+    }
+
+    /**
+     * Makes no calls for a while, such as when told to retry after a given time.
+     */
+    public synchronized void pause(final long millis) {
+        blockedUntil = Math.max(blockedUntil, clock.getAsLong() + millis);
+    }
+}
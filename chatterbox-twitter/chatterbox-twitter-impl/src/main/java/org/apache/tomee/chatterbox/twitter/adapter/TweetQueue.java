@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import org.apache.tomee.chatterbox.twitter.api.TweetException;
+import twitter4j.RateLimitStatus;
+import twitter4j.Status;
+import twitter4j.StatusUpdate;
+import twitter4j.TwitterException;
+
+import javax.resource.spi.work.Work;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends tweets from a WorkManager thread of its own, so that neither the stream delivering
+ * statuses nor the application waits on the Twitter API. Tweets wait in a bounded queue;
+ * once it is full, new ones are refused straight away rather than blocking the caller.
+ * A {@link TokenBucket} keeps the sender within the rate limit, and tweets failing for a
+ * reason that may go away (network trouble, a server error or the rate limit) are retried
+ * a few times, with exponential backoff and jitter.
+ */
+public class TweetQueue implements Work {
+
+    private static final Logger LOGGER = Logger.getLogger(TweetQueue.class.getName());
+
+    private static final long POLL_TIMEOUT = 1000;
+    private static final long INITIAL_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    /**
+     * Where tweets go, {@code Twitter::updateStatus} outside of tests.
+     */
+    public interface Publisher {
+        Status publish(StatusUpdate update) throws TwitterException;
+    }
+
+    private final Publisher publisher;
+    private final TokenBucket bucket;
+    private final int retries;
+    private final BlockingQueue<Pending> queue;
+    private final DelayQueue<Pending> delayed = new DelayQueue<>();
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    /**
+     * @param retries how many times a tweet is retried at most
+     */
+    public TweetQueue(final Publisher publisher, final TokenBucket bucket, final int capacity, final int retries) {
+        this.publisher = publisher;
+        this.bucket = bucket;
+        this.retries = retries;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Queues a tweet without waiting.
+     *
+     * @return completes with the tweet sent, or with a {@link TweetException} if the queue is
+     * full, the adapter stopped or the tweet could not be sent
+     */
+    public CompletableFuture<Status> send(final StatusUpdate update) {
+        final Pending pending = new Pending(update);
+        if (stopped.get()) {
+            pending.future.completeExceptionally(new TweetException("Not sending tweets, the adapter stopped"));
+        } else if (!queue.offer(pending)) {
+            pending.future.completeExceptionally(new TweetException("Outbound tweet queue full, " + queue.size() + " tweets waiting"));
+        } else if (stopped.get()) {
+            cancelQueued();
+        }
+
+        return pending.future;
+    }
+
+    public int size() {
+        return queue.size() + delayed.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped.get()) {
+                final Pending pending = next();
+                if (pending != null && pending.future.isDone()) {
+                    // cancelled by a caller which gave up waiting
+                    continue;
+                }
+
+                if (pending != null && awaitPermit()) {
+                    // the caller may have given up while it waited for the rate limit
+                    if (!pending.future.isDone()) {
+                        publish(pending);
+                    }
+                } else if (pending != null) {
+                    // stopped while waiting
+                    pending.fail(new TweetException("Not sending tweets, the adapter stopped"));
+                }
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.log(Level.FINE, "Tweet sender interrupted", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            cancelQueued();
+        }
+    }
+
+    @Override
+    public void release() {
+        stop();
+    }
+
+    public void stop() {
+        stopped.set(true);
+        cancelQueued();
+    }
+
+    private Pending next() throws InterruptedException {
+        final Pending retry = delayed.poll();
+        if (retry != null) {
+            return retry;
+        }
+
+        final Delayed head = delayed.peek();
+        final long timeout = head == null ? POLL_TIMEOUT : Math.min(POLL_TIMEOUT, Math.max(1, head.getDelay(TimeUnit.MILLISECONDS)));
+        return queue.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean awaitPermit() throws InterruptedException {
+        long wait;
+        while ((wait = bucket.tryAcquire()) > 0) {
+            if (stopped.get()) {
+                return false;
+            }
+            Thread.sleep(Math.min(wait, POLL_TIMEOUT));
+        }
+        return !stopped.get();
+    }
+
+    private void publish(final Pending pending) {
+        try {
+            final Status status = publisher.publish(pending.update);
+            applyRateLimit(status.getRateLimitStatus());
+            pending.future.complete(status);
+        } catch (final TwitterException e) {
+            applyRateLimit(e.getRateLimitStatus());
+
+            if (e.exceededRateLimitation() && e.getRetryAfter() > 0) {
+                bucket.pause(TimeUnit.SECONDS.toMillis(e.getRetryAfter()));
+            }
+
+            if (!isTransient(e) || pending.attempts >= retries) {
+                pending.fail(e);
+                return;
+            }
+
+            final long delay = retryDelay(pending.attempts++);
+            LOGGER.log(Level.FINE, "Retrying tweet in " + delay + "ms: " + e.getMessage());
+            pending.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            delayed.add(pending);
+        } catch (final RuntimeException e) {
+            pending.fail(e);
+        }
+    }
+
+    private void applyRateLimit(final RateLimitStatus rateLimitStatus) {
+        if (rateLimitStatus != null) {
+            bucket.update(rateLimitStatus.getRemaining(), TimeUnit.SECONDS.toMillis(rateLimitStatus.getResetTimeInSeconds()));
+        }
+    }
+
+    private static boolean isTransient(final TwitterException e) {
+        return e.isCausedByNetworkIssue() || e.exceededRateLimitation() || e.getStatusCode() >= 500;
+    }
+
+    // exponential, half of it randomized so that retries do not all line up
+    private static long retryDelay(final int attempt) {
+        final long base = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(attempt, 30));
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
+
+    private void cancelQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.fail(new TweetException("Not sending tweets, the adapter stopped"));
+        }
+
+        // including the retries not due yet, which poll() would not return
+        final List<Pending> waiting = new ArrayList<>(delayed);
+        delayed.removeAll(waiting);
+        for (final Pending retry : waiting) {
+            retry.fail(new TweetException("Not sending tweets, the adapter stopped"));
+        }
+    }
+
+    private static final class Pending implements Delayed {
+
+        private final StatusUpdate update;
+        private final CompletableFuture<Status> future = new CompletableFuture<>();
+        private int attempts;
+        private volatile long due;
+
+        private Pending(final StatusUpdate update) {
+            this.update = update;
+        }
+
+        private void fail(final Exception e) {
+            future.completeExceptionally(e instanceof TweetException ? e : new TweetException(e));
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
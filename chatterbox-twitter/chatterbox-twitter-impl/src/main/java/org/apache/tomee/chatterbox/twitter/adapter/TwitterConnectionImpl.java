@@ -20,8 +20,13 @@ package org.apache.tomee.chatterbox.twitter.adapter;
 
 import org.apache.tomee.chatterbox.twitter.api.TweetException;
 import org.apache.tomee.chatterbox.twitter.api.TwitterConnection;
-import twitter4j.TwitterException;
+import twitter4j.Status;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 public class TwitterConnectionImpl implements TwitterConnection {
@@ -37,13 +42,29 @@ public class TwitterConnectionImpl implements TwitterConnection {
     }
 
     public void sendMessage(final String message) throws TweetException {
+        final CompletableFuture<Status> sent = mc.sendMessage(message);
+        final long timeout = mc.getSendTimeout();
         try {
-            mc.sendMessage(message);
-        } catch (TwitterException e) {
+            sent.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // unless it is being sent right now, the tweet is dropped from the queue
+            sent.cancel(false);
+            throw new TweetException("Tweet not sent within " + timeout + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new TweetException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TweetException) {
+                throw (TweetException) e.getCause();
+            }
+            throw new TweetException(e.getCause());
         }
     }
 
+    public CompletionStage<Long> send(final String message) {
+        return mc.sendMessage(message).thenApply(Status::getId);
+    }
+
     public void close() {
         mc.closeHandle(this);
     }
@@ -19,7 +19,7 @@
 package org.apache.tomee.chatterbox.twitter.adapter;
 
 import org.apache.tomee.chatterbox.twitter.api.TwitterConnection;
-import twitter4j.TwitterException;
+import twitter4j.Status;
 
 import javax.resource.NotSupportedException;
 import javax.resource.ResourceException;
@@ -35,6 +35,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 public class TwitterManagedConnection implements ManagedConnection {
@@ -131,10 +132,14 @@ public class TwitterManagedConnection implements ManagedConnection {
         return new TwitterManagedConnectionMetaData();
     }
 
-    void sendMessage(final String message) throws TwitterException {
+    CompletableFuture<Status> sendMessage(final String message) {
         log.finest("sendMessage()");
 
         final TwitterResourceAdapter resourceAdapter = (TwitterResourceAdapter) mcf.getResourceAdapter();
-        resourceAdapter.tweet(message);
+        return resourceAdapter.tweet(message);
+    }
+
+    long getSendTimeout() {
+        return ((TwitterResourceAdapter) mcf.getResourceAdapter()).getSendTimeout();
     }
 }
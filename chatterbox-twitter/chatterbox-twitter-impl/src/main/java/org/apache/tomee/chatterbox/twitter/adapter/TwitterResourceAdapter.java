@@ -17,17 +17,20 @@
 package org.apache.tomee.chatterbox.twitter.adapter;
 
 import com.twitter.hbc.httpclient.ControlStreamException;
+import org.apache.tomee.chatterbox.dispatch.DispatchPlan;
+import org.apache.tomee.chatterbox.dispatch.FanOut;
+import org.apache.tomee.chatterbox.dispatch.ListenerAnnotations;
 import org.apache.tomee.chatterbox.twitter.api.InvokeAllMatches;
+import org.apache.tomee.chatterbox.twitter.api.ListenerDispatcher;
 import org.apache.tomee.chatterbox.twitter.api.Response;
 import org.apache.tomee.chatterbox.twitter.api.Tweet;
+import org.apache.tomee.chatterbox.twitter.api.TweetException;
 import org.apache.tomee.chatterbox.twitter.api.TweetParam;
 import org.apache.tomee.chatterbox.twitter.api.User;
 import org.apache.tomee.chatterbox.twitter.api.UserParam;
-import org.tomitribe.util.editor.Converter;
 import twitter4j.Status;
 import twitter4j.StatusUpdate;
 import twitter4j.Twitter;
-import twitter4j.TwitterException;
 import twitter4j.TwitterFactory;
 import twitter4j.auth.AccessToken;
 
@@ -40,29 +43,39 @@ import javax.resource.spi.ResourceAdapter;
 import javax.resource.spi.ResourceAdapterInternalException;
 import javax.resource.spi.endpoint.MessageEndpoint;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
 import javax.transaction.xa.XAResource;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Connector(description = "Twitter Resource Adapter", displayName = "Twitter Resource Adapter", eisType = "Twitter Resource Adapter", version = "1.0")
 public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeListener {
 
     private static final Logger LOGGER = Logger.getLogger(TwitterResourceAdapter.class.getName());
-    private static final Map<String, Response> RESPONSE_MAP = new ConcurrentHashMap<>();
+
+    // the text of a tweet and its author, in the order they are passed to a DispatchPlan
+    static final ListenerAnnotations LISTENERS = new ListenerAnnotations(ListenerDispatcher.class,
+            InvokeAllMatches.class, InvokeAllMatches::parallel, InvokeAllMatches::timeout, TwitterResourceAdapter::isResponseMessage,
+            ListenerAnnotations.Source.of(Tweet.class, Tweet::value, TweetParam.class, TweetParam::value),
+            ListenerAnnotations.Source.of(User.class, User::value, UserParam.class, UserParam::value));
+
+    // dialogs are of a handful of classes, planned the first time each is seen
+    private static final ClassValue<DispatchPlan> PLANS = new ClassValue<DispatchPlan>() {
+        @Override
+        protected DispatchPlan computeValue(final Class<?> type) {
+            return DispatchPlan.forClass(type, LISTENERS);
+        }
+    };
+
     final Map<TwitterActivationSpec, EndpointTarget> targets = new ConcurrentHashMap<TwitterActivationSpec, EndpointTarget>();
     private TwitterStreamingClient client;
     @ConfigProperty
@@ -77,70 +90,24 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
     @ConfigProperty
     @NotNull
     private String accessTokenSecret;
+    @ConfigProperty(defaultValue = "10000")
+    private Integer dialogCapacity;
+    @ConfigProperty(defaultValue = "3600000")
+    private Long dialogTimeout;
+    @ConfigProperty(defaultValue = "1000")
+    private Integer outboundQueueSize;
+    @ConfigProperty(defaultValue = "300")
+    private Integer tweetRateLimit;
+    @ConfigProperty(defaultValue = "10800000")
+    private Long tweetRateWindow;
+    @ConfigProperty(defaultValue = "3")
+    private Integer tweetRetries;
+    @ConfigProperty(defaultValue = "60000")
+    private Long sendTimeout;
+    private DialogStore dialogs;
+    private TweetQueue tweets;
     private Twitter twitter;
-
-    private static List<Method> findMatchingMethods(final Class<?> clazz, final Status status) {
-        return Arrays.asList(clazz.getDeclaredMethods())
-                .stream()
-                .sorted((m1, m2) -> m1.toString().compareTo(m2.toString()))
-                .filter(TwitterResourceAdapter::isPublic)
-                .filter(TwitterResourceAdapter::isNotFinal)
-                .filter(TwitterResourceAdapter::isNotAbstract)
-                .filter(m -> filterTweet(status, m))
-                .filter(m -> filterUser(status, m))
-                .filter(m -> filterGetMethod(status, m))
-                .collect(Collectors.toList());
-    }
-
-    private static boolean filterUser(final Status status, final Method m) {
-        return !m.isAnnotationPresent(User.class) || "".equals(m.getAnnotation(User.class).value())
-                || templateMatches(m.getAnnotation(User.class).value(), status.getUser().getScreenName());
-    }
-
-    private static boolean filterTweet(final Status status, final Method m) {
-        return !m.isAnnotationPresent(Tweet.class) || "".equals(m.getAnnotation(Tweet.class).value())
-                || templateMatches(m.getAnnotation(Tweet.class).value(), getNormalizedText(status));
-    }
-
-    private static String getNormalizedText(Status status) {
-        String text = status.getText();
-        while (text.startsWith("@")) {
-            text = text.replaceFirst("@?(\\w){1,15}(\\s+)", "");
-        }
-        return text;
-    }
-
-    private static boolean filterGetMethod(final Status status, final Method m) {
-        return !(Response.class.isAssignableFrom(m.getDeclaringClass())
-                && "getMessage".equals(m.getName())
-                && m.getParameterCount() == 0);
-    }
-
-    private static boolean templateMatches(final String pattern, final String input) {
-        try {
-            if (Pattern.matches(pattern, input)) {
-                return true;
-            }
-        } catch (Exception e) {
-            // ignore
-        }
-
-        final Template template = new Template(pattern);
-        final Map<String, List<String>> values = new HashMap<>();
-        return template.match(input, values);
-    }
-
-    private static boolean isPublic(final Method m) {
-        return Modifier.isPublic(m.getModifiers());
-    }
-
-    private static boolean isNotAbstract(final Method m) {
-        return !Modifier.isAbstract(m.getModifiers());
-    }
-
-    private static boolean isNotFinal(final Method m) {
-        return !Modifier.isFinal(m.getModifiers());
-    }
+    private WorkManager workManager;
 
     public static Object[] getValues(final Method method, final Status status) {
 
@@ -148,90 +115,38 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
             return null;
         }
 
-        final Parameter[] parameters = method.getParameters();
-        if (parameters.length == 0) {
-            return new Object[0];
-        }
-
-        final Template tweetTemplate = getTemplate(method.getAnnotation(Tweet.class));
-        final Map<String, List<String>> tweetParamValues = new HashMap<>();
-        if (tweetTemplate != null) {
-            tweetTemplate.match(getNormalizedText(status), tweetParamValues);
-        }
-
-        final Template userTemplate = getTemplate(method.getAnnotation(User.class));
-        final Map<String, List<String>> userParamValues = new HashMap<>();
-        if (userTemplate != null) {
-            userTemplate.match(status.getUser().getScreenName(), userParamValues);
-        }
-
-        final Object[] values = new Object[parameters.length];
-
-        for (int i = 0; i < parameters.length; i++) {
-            final Parameter parameter = parameters[i];
-
-            values[i] = null;
-
-            if (parameter.isAnnotationPresent(TweetParam.class)) {
-                final TweetParam tweetParam = parameter.getAnnotation(TweetParam.class);
-                if (tweetParam.value() == null || tweetParam.value().length() == 0) {
-                    values[i] = Converter.convert(getNormalizedText(status), parameter.getType(), null);
-                } else {
-                    final List<String> paramValues = tweetParamValues.get(tweetParam.value());
-                    final String paramValue = paramValues == null || paramValues.size() == 0 ? null : paramValues.get(0);
-                    values[i] = Converter.convert(paramValue, parameter.getType(), null);
-                }
-            }
-
-            if (parameter.isAnnotationPresent(UserParam.class)) {
-                final UserParam userParam = parameter.getAnnotation(UserParam.class);
-                if (userParam.value() == null || userParam.value().length() == 0) {
-                    values[i] = Converter.convert(status.getUser().getScreenName(), parameter.getType(), null);
-                } else {
-                    final List<String> paramValues = userParamValues.get(userParam.value());
-                    final String paramValue = paramValues == null || paramValues.size() == 0 ? null : paramValues.get(0);
-                    values[i] = Converter.convert(paramValue, parameter.getType(), null);
-                }
-            }
-        }
-
-        return values;
+        final StatusView view = StatusView.of(status);
+        return PLANS.get(method.getDeclaringClass()).forMethod(method).bind(view.getNormalizedText(), view.getScreenName());
     }
 
-    private static Template getTemplate(final Annotation annotation) {
-        if (annotation == null) {
-            return null;
-        }
-
-        try {
-
-            final Method patternMethod = annotation.getClass().getMethod("value");
-            if (patternMethod == null) {
-                return null;
-            }
-
-            if (!String.class.equals(patternMethod.getReturnType())) {
-                return null;
-            }
-
-            final String pattern = (String) patternMethod.invoke(annotation);
-            return new Template(pattern);
-        } catch (final Exception e) {
-            // ignore
-        }
-
-        return null;
+    /**
+     * A dialog's own getMessage() is the reply to send, not a listener.
+     */
+    private static boolean isResponseMessage(final Method method) {
+        return Response.class.isAssignableFrom(method.getDeclaringClass())
+                && "getMessage".equals(method.getName())
+                && method.getParameterCount() == 0;
     }
 
     public void start(final BootstrapContext bootstrapContext) throws ResourceAdapterInternalException {
 
         LOGGER.info("Starting " + this);
 
+        workManager = bootstrapContext.getWorkManager();
+        dialogs = new DialogStore(dialogCapacity == null ? 0 : dialogCapacity, dialogTimeout == null ? 0 : dialogTimeout);
         client = new TwitterStreamingClient(this, consumerKey, consumerSecret, accessToken, accessTokenSecret);
         twitter = new TwitterFactory().getInstance();
         twitter.setOAuthConsumer(consumerKey, consumerSecret);
         twitter.setOAuthAccessToken(new AccessToken(accessToken, accessTokenSecret));
 
+        tweets = new TweetQueue(twitter::updateStatus,
+                new TokenBucket(tweetRateLimit == null ? 0 : tweetRateLimit, tweetRateWindow == null ? 0 : tweetRateWindow),
+                outboundQueueSize == null ? 0 : outboundQueueSize, tweetRetries == null ? 0 : tweetRetries);
+        try {
+            workManager.scheduleWork(tweets);
+        } catch (final WorkException e) {
+            throw new ResourceAdapterInternalException("Unable to schedule the tweet sender", e);
+        }
 
         try {
             client.run();
@@ -243,6 +158,10 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
     public void stop() {
         LOGGER.info("Stopping " + this);
         client.stop();
+        if (tweets != null) {
+            tweets.stop();
+        }
+        LOGGER.info("Dialogs: " + dialogs);
     }
 
     public void endpointActivation(final MessageEndpointFactory messageEndpointFactory, final ActivationSpec activationSpec)
@@ -255,7 +174,7 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
 
         LOGGER.info("Deploying " + endpointClass.getName());
 
-        final EndpointTarget target = new EndpointTarget(messageEndpoint, endpointClass);
+        final EndpointTarget target = new EndpointTarget(messageEndpointFactory, messageEndpoint, endpointClass);
         targets.put(twitterActivationSpec, target);
 
     }
@@ -278,8 +197,10 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
     @Override
     public void onStatus(final Status status) {
 
-        final String username = status.getUser().getScreenName();
-        final Response response = RESPONSE_MAP.remove(username);
+        // parsed once, whatever number of endpoints and methods look at it
+        final StatusView view = StatusView.of(status);
+        final String username = view.getScreenName();
+        final Response response = dialogs == null ? null : dialogs.take(username);
 
         if (response != null && response.getDialog() != null) {
             // pull the response object from the map
@@ -287,76 +208,110 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
             final Object dialog = response.getDialog();
 
             try {
-                final List<Method> matchingMethods = findMatchingMethods(dialog.getClass(), status);
-
-                if (dialog.getClass().isAnnotationPresent(InvokeAllMatches.class)) {
-                    for (final Method method : matchingMethods) {
-                        LOGGER.log(Level.INFO, "Invoking method " + method.toString() + " for " + getNormalizedText(status));
-                        final Object[] values = getValues(method, status);
-                        final Object result = method.invoke(dialog, values);
-                        processResponse(status, result);
+                final DispatchPlan plan = PLANS.get(dialog.getClass());
+                final String text = view.getNormalizedText();
+                final List<DispatchPlan.MethodPlan> matchingMethods = plan.match(text, username);
+
+                if (matchingMethods.isEmpty()) {
+                    LOGGER.log(Level.INFO, "No method to match " + text);
+                } else if (plan.isInvokeAllMatches()) {
+                    for (final DispatchPlan.MethodPlan method : matchingMethods) {
+                        LOGGER.log(Level.INFO, "Invoking method " + method + " for " + text);
+                        final Object result = method.invoke(dialog, method.arguments(text, username));
+                        processResponse(view, result);
                     }
                 } else {
-                    final Method method = matchingMethods.get(0);
-                    LOGGER.log(Level.INFO, "Invoking method " + method.toString() + " for " + getNormalizedText(status));
-                    final Object[] values = getValues(method, status);
-                    final Object result = method.invoke(dialog, values);
-                    processResponse(status, result);
+                    final DispatchPlan.MethodPlan method = matchingMethods.get(0);
+                    LOGGER.log(Level.INFO, "Invoking method " + method + " for " + text);
+                    final Object result = method.invoke(dialog, method.arguments(text, username));
+                    processResponse(view, result);
                 }
             } catch (IllegalAccessException | InvocationTargetException e) {
                 LOGGER.severe("Unable to call response object:" + e.getMessage());
-                RESPONSE_MAP.remove(status.getUser().getScreenName());
+                dialogs.remove(username);
             }
         } else {
             for (final EndpointTarget endpointTarget : this.targets.values()) {
-                endpointTarget.invoke(status);
+                endpointTarget.invoke(view);
             }
         }
     }
 
-    private void processResponse(final Status status, final Object result) {
+    private void processResponse(final StatusView status, final Object result) {
+        // no dialogs are kept until started
+        final DialogStore dialogs = this.dialogs;
+
         if (Response.class.isInstance(result)) {
             final Response response = Response.class.cast(result);
-            RESPONSE_MAP.put(status.getUser().getScreenName(), response);
-            try {
-                replyTo(status, response.getMessage());
-            } catch (TwitterException e) {
-                LOGGER.severe("Unable to send tweet" + e.getMessage());
+            if (dialogs != null) {
+                dialogs.put(status.getScreenName(), response);
             }
-        } else {
-            RESPONSE_MAP.remove(status.getUser().getScreenName());
+            replyTo(status, response.getMessage());
+        } else if (dialogs != null) {
+            dialogs.remove(status.getScreenName());
         }
 
         if (String.class.isInstance(result)) {
-            RESPONSE_MAP.remove(status.getUser().getScreenName());
-            try {
-                replyTo(status, String.class.cast(result));
-            } catch (TwitterException e) {
-                LOGGER.severe("Unable to send tweet" + e.getMessage());
-            }
+            replyTo(status, String.class.cast(result));
         }
     }
 
-    private void replyTo(final Status status, final String reply) throws TwitterException {
+    private void replyTo(final StatusView status, final String reply) {
         replyTo(status, reply, true);
     }
 
-    private void replyTo(final Status status, final String reply, final boolean prefix) throws TwitterException {
+    private void replyTo(final StatusView status, final String reply, final boolean prefix) {
         final String message;
 
         if (prefix) {
-            message = "@" + status.getUser().getScreenName() + " " + reply;
+            message = "@" + status.getScreenName() + " " + reply;
         } else {
             message = reply;
         }
 
         final StatusUpdate statusUpdate = new StatusUpdate(message);
         statusUpdate.setInReplyToStatusId(status.getId());
-        twitter.updateStatus(statusUpdate);
+
+        // queued, the stream is not held up while the reply goes out
+        send(statusUpdate).whenComplete((sent, e) -> {
+            if (e != null) {
+                LOGGER.severe("Unable to send tweet " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * How long {@link TwitterConnectionImpl#sendMessage(String)} waits for its tweet to be sent.
+     */
+    long getSendTimeout() {
+        return sendTimeout == null || sendTimeout < 1 ? 60000 : sendTimeout;
+    }
+
+    /**
+     * The dialogs in progress, along with hit, miss and eviction counts; {@code null} until started.
+     */
+    public DialogStore getDialogs() {
+        return dialogs;
     }
 
-    public void tweet(final String tweet) throws TwitterException {
-        twitter.updateStatus(tweet);
+    /**
+     * Queues a tweet, returning straight away.
+     *
+     * @return completes with the tweet sent, or with a {@link TweetException} if it could not be sent
+     */
+    public CompletableFuture<Status> tweet(final String tweet) {
+        return send(new StatusUpdate(tweet));
+    }
+
+    private CompletableFuture<Status> send(final StatusUpdate statusUpdate) {
+        final TweetQueue queue = tweets;
+        if (queue == null) {
+            final CompletableFuture<Status> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new TweetException("The resource adapter is not started"));
+            return failed;
+        }
+
+        return queue.send(statusUpdate);
     }
 
     @Override
@@ -369,68 +324,84 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
                 '}';
     }
 
-    public static class TweetWrapper {
-        private final String user;
-        private final String text;
-        //        private final String
-
-
-        public TweetWrapper(final Status status) {
-            user = status.getUser().getScreenName();
-            text = status.getText();
-        }
-
-        @Override
-        public String toString() {
-            return "Tweet{" +
-                    "user='" + user + '\'' +
-                    ", text='" + text + '\'' +
-                    '}';
-        }
-    }
-
     public class EndpointTarget {
+        private final MessageEndpointFactory messageEndpointFactory;
         private final MessageEndpoint messageEndpoint;
         private final Class<?> clazz;
+        private final DispatchPlan plan;
 
         public EndpointTarget(final MessageEndpoint messageEndpoint, final Class<?> clazz) {
+            this(null, messageEndpoint, clazz);
+        }
+
+        /**
+         * @param messageEndpointFactory creates an endpoint for each method called in parallel,
+         *                               as the shared endpoint can only take one delivery at a time
+         */
+        public EndpointTarget(final MessageEndpointFactory messageEndpointFactory, final MessageEndpoint messageEndpoint, final Class<?> clazz) {
+            this.messageEndpointFactory = messageEndpointFactory;
             this.messageEndpoint = messageEndpoint;
             this.clazz = clazz;
+            this.plan = DispatchPlan.forClass(clazz, LISTENERS);
         }
 
         public void invoke(final Status status) {
+            invoke(StatusView.of(status));
+        }
 
-            // wrapper object for logging purposes
-            final TweetWrapper tweet = new TweetWrapper(status);
+        public void invoke(final StatusView tweet) {
 
             // find matching method(s)
 
-            final List<Method> matchingMethods = findMatchingMethods(clazz, status);
+            final String text = tweet.getNormalizedText();
+            final String user = tweet.getScreenName();
+            final List<DispatchPlan.MethodPlan> matchingMethods = plan.match(text, user);
 
-            if (matchingMethods == null || matchingMethods.size() == 0) {
+            if (matchingMethods.size() == 0) {
                 // log this
                 LOGGER.log(Level.INFO, "No method to match " + tweet);
                 return;
             }
 
-            if (this.clazz.isAnnotationPresent(InvokeAllMatches.class)) {
-                for (final Method method : matchingMethods) {
-                    LOGGER.log(Level.INFO, "Invoking method " + method.toString() + " for " + tweet);
-                    invoke(method, status);
+            if (plan.isParallel() && messageEndpointFactory != null && matchingMethods.size() > 1) {
+                // a method that returns after the deadline still gets its reply sent, just later
+                final FanOut fanOut = new FanOut(workManager, plan.getTimeout()).whenLate(outcome -> {
+                    if (outcome.isSuccessful()) {
+                        processResponse(tweet, outcome.getResult());
+                    }
+                });
+                for (final DispatchPlan.MethodPlan method : matchingMethods) {
+                    LOGGER.log(Level.INFO, "Invoking method " + method + " for " + tweet);
+                    fanOut.add(method.toString(), () -> invokeOnNewEndpoint(method, text, user));
+                }
+
+                final FanOut.Report report = fanOut.run();
+                LOGGER.log(report.isSuccessful() ? Level.INFO : Level.WARNING, "Invoked " + report + " for " + tweet);
+
+                // replies go out in method order, whichever method returned first
+                for (final FanOut.Outcome outcome : report.getOutcomes()) {
+                    if (outcome.isSuccessful()) {
+                        processResponse(tweet, outcome.getResult());
+                    }
+                }
+            } else if (plan.isInvokeAllMatches()) {
+                for (final DispatchPlan.MethodPlan method : matchingMethods) {
+                    LOGGER.log(Level.INFO, "Invoking method " + method + " for " + tweet);
+                    invoke(method, tweet, text, user);
                 }
             } else {
-                final Method method = matchingMethods.get(0);
-                LOGGER.log(Level.INFO, "Invoking method " + method.toString() + " for " + tweet);
-                invoke(method, status);
+                final DispatchPlan.MethodPlan method = matchingMethods.get(0);
+                LOGGER.log(Level.INFO, "Invoking method " + method + " for " + tweet);
+                invoke(method, tweet, text, user);
             }
         }
 
-        private void invoke(final Method method, final Status status) {
+        private void invoke(final DispatchPlan.MethodPlan plan, final StatusView status, final String text, final String user) {
+            final Method method = plan.getMethod();
             try {
                 try {
                     messageEndpoint.beforeDelivery(method);
-                    final Object[] values = getValues(method, status);
-                    final Object result = method.invoke(messageEndpoint, values);
+                    final Object result = plan.invoke(messageEndpoint, plan.arguments(text, user));
                     processResponse(status, result);
                 } finally {
                     messageEndpoint.afterDelivery();
@@ -439,5 +410,20 @@ public class TwitterResourceAdapter implements ResourceAdapter, StatusChangeList
                 throw new RuntimeException(e);
             }
         }
+
+        private Object invokeOnNewEndpoint(final DispatchPlan.MethodPlan plan, final String text, final String user) throws Exception {
+            final Method method = plan.getMethod();
+            final MessageEndpoint endpoint = messageEndpointFactory.createEndpoint(null);
+            try {
+                endpoint.beforeDelivery(method);
+                try {
+                    return plan.invoke(endpoint, plan.arguments(text, user));
+                } finally {
+                    endpoint.afterDelivery();
+                }
+            } finally {
+                endpoint.release();
+            }
+        }
     }
 }
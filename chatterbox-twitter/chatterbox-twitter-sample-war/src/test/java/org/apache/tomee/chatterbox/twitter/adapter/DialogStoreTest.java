@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import org.apache.tomee.chatterbox.twitter.api.Response;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DialogStoreTest {
+
+    @Test
+    public void takeRemoves() throws Exception {
+        final DialogStore store = new DialogStore(10, 0);
+        final Response response = Response.message("Who's there?").build();
+
+        store.put("joe", response);
+        Assert.assertSame(response, store.take("joe"));
+        Assert.assertNull(store.take("joe"));
+
+        Assert.assertEquals(1, store.getHits());
+        Assert.assertEquals(1, store.getMisses());
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        final DialogStore store = new DialogStore(2, 0);
+        store.put("joe", Response.message("1").build());
+        store.put("jane", Response.message("2").build());
+        store.put("jim", Response.message("3").build());
+
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(1, store.getEvictions());
+        Assert.assertNull(store.take("joe"));
+        Assert.assertNotNull(store.take("jane"));
+        Assert.assertNotNull(store.take("jim"));
+    }
+
+    @Test
+    public void expiresIdleDialogs() throws Exception {
+        final AtomicLong now = new AtomicLong(1000);
+        final DialogStore store = new DialogStore(10, 500, now::get);
+        store.put("joe", Response.message("1").build());
+        store.put("jane", Response.message("2").build());
+
+        now.addAndGet(501);
+        Assert.assertNull(store.take("joe"));
+        Assert.assertEquals(1, store.getExpirations());
+
+        // expired dialogs make way as new ones come in
+        store.put("jim", Response.message("3").build());
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals(2, store.getExpirations());
+        Assert.assertNotNull(store.take("jim"));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import org.apache.tomee.chatterbox.dispatch.DispatchPlan;
+import org.apache.tomee.chatterbox.twitter.api.Response;
+import org.apache.tomee.chatterbox.twitter.api.Tweet;
+import org.apache.tomee.chatterbox.twitter.api.TweetParam;
+import org.apache.tomee.chatterbox.twitter.api.User;
+import org.apache.tomee.chatterbox.twitter.api.UserParam;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+public class DispatchPlanTest {
+
+    @Test
+    public void candidateMethodsInStableOrder() {
+        final List<DispatchPlan.MethodPlan> methods = DispatchPlan.forClass(Greetings.class, TwitterResourceAdapter.LISTENERS).getMethods();
+
+        Assert.assertEquals(3, methods.size());
+        Assert.assertEquals("add", methods.get(0).getMethod().getName());
+        Assert.assertEquals("greet", methods.get(1).getMethod().getName());
+        Assert.assertEquals("tagged", methods.get(2).getMethod().getName());
+    }
+
+    @Test
+    public void matchesAndBinds() throws Exception {
+        final DispatchPlan plan = DispatchPlan.forClass(Greetings.class, TwitterResourceAdapter.LISTENERS);
+
+        final List<DispatchPlan.MethodPlan> matching = plan.match("hello Joe", "bob");
+        Assert.assertEquals(1, matching.size());
+        Assert.assertTrue(plan.match("hello Joe", "alice").isEmpty());
+        Assert.assertEquals(2, plan.match("hello #TomEE", "bob").size());
+
+        final DispatchPlan.MethodPlan greet = matching.get(0);
+        final Object[] arguments = greet.arguments("hello Joe", "bob");
+        Assert.assertEquals("Joe", arguments[0]);
+        Assert.assertEquals("bob", arguments[1]);
+        Assert.assertEquals("Hi Joe, from bob", greet.invoke(new Greetings(), arguments));
+    }
+
+    @Test
+    public void invokesWithPrimitiveParameters() throws Exception {
+        final DispatchPlan.MethodPlan add = DispatchPlan.forClass(Greetings.class, TwitterResourceAdapter.LISTENERS).match("4 plus 7", "carol").get(0);
+
+        Assert.assertEquals(11, add.invoke(new Greetings(), add.arguments("4 plus 7", "carol")));
+    }
+
+    @Test(expected = InvocationTargetException.class)
+    public void conversionFailureReported() throws Exception {
+        final DispatchPlan.MethodPlan add = DispatchPlan.forClass(Greetings.class, TwitterResourceAdapter.LISTENERS).getMethods().get(0);
+        add.invoke(new Greetings(), add.arguments("four plus 7", "carol"));
+    }
+
+    @Test
+    public void responseMessageIsNotAListener() {
+        final List<DispatchPlan.MethodPlan> methods = DispatchPlan.forClass(Riddle.class, TwitterResourceAdapter.LISTENERS).getMethods();
+
+        Assert.assertEquals(1, methods.size());
+        Assert.assertEquals("answer", methods.get(0).getMethod().getName());
+        Assert.assertTrue(DispatchPlan.forClass(Riddle.class, TwitterResourceAdapter.LISTENERS).match("Who's there?", "bob").isEmpty());
+    }
+
+    public static class Greetings {
+
+        @Tweet("hello {name}")
+        @User("bob")
+        public String greet(@TweetParam("name") final String name, @UserParam final String user) {
+            return "Hi " + name + ", from " + user;
+        }
+
+        @Tweet(".*#TomEE.*")
+        public void tagged(@TweetParam final String text) {
+        }
+
+        @Tweet("{a} plus {b}")
+        public int add(@TweetParam("a") final int a, @TweetParam("b") final int b) {
+            return a + b;
+        }
+
+        public final void notAListener() {
+        }
+    }
+
+    public static class Riddle extends Response {
+
+        public Riddle() {
+            super(false, "Who's there?", null);
+        }
+
+        @Override
+        public String getMessage() {
+            return super.getMessage();
+        }
+
+        @Tweet("{who} who\\?")
+        public Response answer(@TweetParam("who") final String who) {
+            return Response.message("Very funny, " + who).build();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class StatusViewTest {
+
+    @Test
+    public void leadingMentionsRemoved() throws Exception {
+        final StatusView view = StatusView.of(new TestStatus("@Bot  @other_bot do you like @candy?", "Joe"));
+
+        Assert.assertEquals("do you like @candy?", view.getNormalizedText());
+        Assert.assertEquals(Arrays.asList("Bot", "other_bot", "candy"), view.getMentions());
+        Assert.assertEquals("Joe", view.getScreenName());
+    }
+
+    @Test
+    public void hashtags() throws Exception {
+        final StatusView view = StatusView.of(new TestStatus("Testing connectors on #TomEE for #JavaOne, see issue#12", "jongallimore"));
+
+        Assert.assertEquals(view.getText(), view.getNormalizedText());
+        Assert.assertEquals(Arrays.asList("TomEE", "JavaOne"), view.getHashtags());
+        Assert.assertEquals(Collections.emptyList(), view.getMentions());
+    }
+
+    @Test
+    public void notMentions() throws Exception {
+        // previously looped forever on a trailing mention
+        Assert.assertEquals("@Bot", StatusView.of(new TestStatus("@Bot", "Joe")).getNormalizedText());
+        Assert.assertEquals("@Bot, hi", StatusView.of(new TestStatus("@Bot, hi", "Joe")).getNormalizedText());
+        Assert.assertEquals("@a_name_too_long_for_twitter hi",
+                StatusView.of(new TestStatus("@a_name_too_long_for_twitter hi", "Joe")).getNormalizedText());
+
+        final StatusView mail = StatusView.of(new TestStatus("mail joe@example.com", "Joe"));
+        Assert.assertEquals(Collections.emptyList(), mail.getMentions());
+    }
+}
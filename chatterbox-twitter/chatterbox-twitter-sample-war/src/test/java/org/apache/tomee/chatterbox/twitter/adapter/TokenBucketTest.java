@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketTest {
+
+    @Test
+    public void burstThenSpaced() throws Exception {
+        final AtomicLong now = new AtomicLong(1000);
+        final TokenBucket bucket = new TokenBucket(2, 1000, now::get);
+
+        Assert.assertEquals(0, bucket.tryAcquire());
+        Assert.assertEquals(0, bucket.tryAcquire());
+        Assert.assertEquals(500, bucket.tryAcquire());
+
+        now.addAndGet(500);
+        Assert.assertEquals(0, bucket.tryAcquire());
+        Assert.assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    public void serverLimitWins() throws Exception {
+        final AtomicLong now = new AtomicLong(1000);
+        final TokenBucket bucket = new TokenBucket(300, 1000, now::get);
+
+        bucket.update(0, 6000);
+        Assert.assertEquals(5000, bucket.tryAcquire());
+
+        now.set(6000);
+        Assert.assertEquals(0, bucket.tryAcquire());
+
+        bucket.update(1, 10000);
+        Assert.assertEquals(0, bucket.tryAcquire());
+        Assert.assertTrue(bucket.tryAcquire() > 0);
+    }
+}
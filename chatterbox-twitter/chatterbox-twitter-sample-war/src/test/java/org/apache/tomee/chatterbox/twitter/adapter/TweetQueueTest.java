@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomee.chatterbox.twitter.adapter;
+
+import org.apache.tomee.chatterbox.twitter.api.TweetException;
+import org.junit.Assert;
+import org.junit.Test;
+import twitter4j.Status;
+import twitter4j.StatusUpdate;
+import twitter4j.TwitterException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TweetQueueTest {
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final TweetQueue queue = new TweetQueue(update -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new TwitterException("Over capacity", null, 503);
+            }
+            return new TestStatus(update.getStatus(), "bot");
+        }, new TokenBucket(0, 0), 10, 3);
+        start(queue);
+
+        final Status status = queue.send(new StatusUpdate("hello")).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("hello", status.getText());
+        Assert.assertEquals(2, attempts.get());
+
+        queue.stop();
+    }
+
+    @Test
+    public void permanentFailuresNotRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final TweetQueue queue = new TweetQueue(update -> {
+            attempts.incrementAndGet();
+            throw new TwitterException("Status is a duplicate", null, 403);
+        }, new TokenBucket(0, 0), 10, 3);
+        start(queue);
+
+        try {
+            queue.send(new StatusUpdate("hello")).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TweetException);
+        }
+
+        Assert.assertEquals(1, attempts.get());
+        queue.stop();
+    }
+
+    @Test
+    public void refusedWhenFull() throws Exception {
+        // nothing takes tweets off the queue
+        final TweetQueue queue = new TweetQueue(update -> null, new TokenBucket(0, 0), 1, 3);
+
+        final CompletableFuture<Status> first = queue.send(new StatusUpdate("first"));
+        final CompletableFuture<Status> second = queue.send(new StatusUpdate("second"));
+
+        Assert.assertFalse(first.isDone());
+        Assert.assertTrue(second.isCompletedExceptionally());
+
+        queue.stop();
+        Assert.assertTrue(first.isCompletedExceptionally());
+    }
+
+    @Test
+    public void cancelledTweetsNotSent() throws Exception {
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        final TweetQueue queue = new TweetQueue(update -> {
+            sent.add(update.getStatus());
+            return new TestStatus(update.getStatus(), "bot");
+        }, new TokenBucket(0, 0), 10, 3);
+
+        queue.send(new StatusUpdate("first")).cancel(false);
+        final CompletableFuture<Status> second = queue.send(new StatusUpdate("second"));
+        start(queue);
+
+        second.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(Collections.singletonList("second"), sent);
+
+        queue.stop();
+    }
+
+    @Test
+    public void cancelledWhileRateLimitedNotSent() throws Exception {
+        final AtomicLong clock = new AtomicLong();
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        final TweetQueue queue = new TweetQueue(update -> {
+            sent.add(update.getStatus());
+            return new TestStatus(update.getStatus(), "bot");
+        }, new TokenBucket(1, 1000, clock::get), 10, 3);
+        start(queue);
+
+        queue.send(new StatusUpdate("first")).get(10, TimeUnit.SECONDS);
+
+        // taken off the queue, then waits for the rate limit until its caller gives up
+        final CompletableFuture<Status> second = queue.send(new StatusUpdate("second"));
+        final long taken = System.currentTimeMillis() + 10000;
+        while (queue.size() > 0 && System.currentTimeMillis() < taken) {
+            Thread.sleep(10);
+        }
+        second.cancel(false);
+        final CompletableFuture<Status> third = queue.send(new StatusUpdate("third"));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!third.isDone() && System.currentTimeMillis() < deadline) {
+            clock.addAndGet(1000);
+            Thread.sleep(100);
+        }
+
+        third.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(Arrays.asList("first", "third"), sent);
+
+        queue.stop();
+    }
+
+    private static void start(final TweetQueue queue) {
+        final Thread thread = new Thread(queue);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -18,8 +18,12 @@
  */
 package org.apache.tomee.chatterbox.xmpp.impl;
 
+import org.apache.tomee.chatterbox.dispatch.DispatchPlan;
+import org.apache.tomee.chatterbox.dispatch.FanOut;
+import org.apache.tomee.chatterbox.dispatch.ListenerAnnotations;
 import org.apache.tomee.chatterbox.xmpp.api.MessageException;
 import org.apache.tomee.chatterbox.xmpp.api.inflow.InvokeAllMatches;
+import org.apache.tomee.chatterbox.xmpp.api.inflow.ListenerDispatcher;
 import org.apache.tomee.chatterbox.xmpp.api.inflow.MessageText;
 import org.apache.tomee.chatterbox.xmpp.api.inflow.MessageTextParam;
 import org.apache.tomee.chatterbox.xmpp.api.inflow.Sender;
@@ -35,7 +39,6 @@ import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
-import org.tomitribe.util.editor.Converter;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ActivationSpec;
@@ -47,23 +50,17 @@ import javax.resource.spi.ResourceAdapterInternalException;
 import javax.resource.spi.TransactionSupport;
 import javax.resource.spi.endpoint.MessageEndpoint;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
+import javax.resource.spi.work.WorkManager;
 import javax.transaction.xa.XAResource;
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Connector(
         reauthenticationSupport = false,
@@ -75,6 +72,12 @@ public class XMPPResourceAdapter implements ResourceAdapter, Serializable, Messa
 
     private static final Logger LOGGER = Logger.getLogger(XMPPResourceAdapter.class.getName());
 
+    // the sender and the text of a message, in the order they are passed to a DispatchPlan
+    static final ListenerAnnotations LISTENERS = new ListenerAnnotations(ListenerDispatcher.class,
+            InvokeAllMatches.class, InvokeAllMatches::parallel, InvokeAllMatches::timeout, method -> false,
+            ListenerAnnotations.Source.of(Sender.class, Sender::value, SenderParam.class, SenderParam::value),
+            ListenerAnnotations.Source.of(MessageText.class, MessageText::value, MessageTextParam.class, MessageTextParam::value));
+
     final Map<XMPPActivationSpec, EndpointTarget> targets = new ConcurrentHashMap<XMPPActivationSpec, EndpointTarget>();
 
     @ConfigProperty(defaultValue = "localhost")
@@ -95,87 +98,7 @@ public class XMPPResourceAdapter implements ResourceAdapter, Serializable, Messa
     private XMPPTCPConnection connection;
     private ChatManager chatmanager;
     private boolean connected = false;
-
-    private static Object[] getValues(final Method method, final String sender, final String message) {
-
-        if (method == null) {
-            return null;
-        }
-
-        final Parameter[] parameters = method.getParameters();
-        if (parameters.length == 0) {
-            return new Object[0];
-        }
-
-        final Template senderTemplate = getTemplate(method.getAnnotation(Sender.class));
-        final Map<String, List<String>> senderParamValues = new HashMap<>();
-        if (senderTemplate != null) {
-            senderTemplate.match(sender, senderParamValues);
-        }
-
-        final Template messageTextTemplate = getTemplate(method.getAnnotation(MessageText.class));
-        final Map<String, List<String>> messageTextParamValues = new HashMap<>();
-        if (messageTextTemplate != null) {
-            messageTextTemplate.match(message, messageTextParamValues);
-        }
-
-        final Object[] values = new Object[parameters.length];
-
-        for (int i = 0; i < parameters.length; i++) {
-            final Parameter parameter = parameters[i];
-
-            values[i] = null;
-
-            if (parameter.isAnnotationPresent(SenderParam.class)) {
-                final SenderParam senderParam = parameter.getAnnotation(SenderParam.class);
-                if (senderParam.value() == null || senderParam.value().length() == 0) {
-                    values[i] = Converter.convert(sender, parameter.getType(), null);
-                } else {
-                    final List<String> paramValues = senderParamValues.get(senderParam.value());
-                    final String paramValue = paramValues == null || paramValues.size() == 0 ? null : paramValues.get(0);
-                    values[i] = Converter.convert(paramValue, parameter.getType(), null);
-                }
-            }
-
-            if (parameter.isAnnotationPresent(MessageTextParam.class)) {
-                final MessageTextParam messageTextParam = parameter.getAnnotation(MessageTextParam.class);
-                if (messageTextParam.value() == null || messageTextParam.value().length() == 0) {
-                    values[i] = Converter.convert(message, parameter.getType(), null);
-                } else {
-                    final List<String> paramValues = messageTextParamValues.get(messageTextParam.value());
-                    final String paramValue = paramValues == null || paramValues.size() == 0 ? null : paramValues.get(0);
-                    values[i] = Converter.convert(paramValue, parameter.getType(), null);
-                }
-            }
-        }
-
-        return values;
-    }
-
-    private static Template getTemplate(final Annotation annotation) {
-        if (annotation == null) {
-            return null;
-        }
-
-        try {
-
-            final Method patternMethod = annotation.getClass().getMethod("value");
-            if (patternMethod == null) {
-                return null;
-            }
-
-            if (!String.class.equals(patternMethod.getReturnType())) {
-                return null;
-            }
-
-            final String pattern = (String) patternMethod.invoke(annotation);
-            return new Template(pattern);
-        } catch (final Exception e) {
-            // ignore
-        }
-
-        return null;
-    }
+    private transient WorkManager workManager;
 
     public String getHost() {
         return host;
@@ -225,7 +148,7 @@ public class XMPPResourceAdapter implements ResourceAdapter, Serializable, Messa
         final Class<?> endpointClass = xmppActivationSpec.getBeanClass() != null ? xmppActivationSpec
                 .getBeanClass() : messageEndpointFactory.getEndpointClass();
 
-        final EndpointTarget target = new EndpointTarget(messageEndpoint, endpointClass);
+        final EndpointTarget target = new EndpointTarget(messageEndpointFactory, workManager, messageEndpoint, endpointClass);
         targets.put(xmppActivationSpec, target);
 
     }
@@ -244,6 +167,7 @@ public class XMPPResourceAdapter implements ResourceAdapter, Serializable, Messa
     public void start(BootstrapContext ctx)
             throws ResourceAdapterInternalException {
         LOGGER.info("Starting " + this);
+        workManager = ctx.getWorkManager();
         connect();
     }
 
@@ -339,12 +263,28 @@ public class XMPPResourceAdapter implements ResourceAdapter, Serializable, Messa
     }
 
     public static class EndpointTarget {
+        private final MessageEndpointFactory messageEndpointFactory;
+        private final WorkManager workManager;
         private final MessageEndpoint messageEndpoint;
         private final Class<?> clazz;
+        private final DispatchPlan plan;
 
         public EndpointTarget(final MessageEndpoint messageEndpoint, final Class<?> clazz) {
+            this(null, null, messageEndpoint, clazz);
+        }
+
+        /**
+         * @param messageEndpointFactory creates an endpoint for each method called in parallel,
+         *                               as the shared endpoint can only take one delivery at a time
+         * @param workManager            runs the methods called in parallel
+         */
+        public EndpointTarget(final MessageEndpointFactory messageEndpointFactory, final WorkManager workManager,
+                              final MessageEndpoint messageEndpoint, final Class<?> clazz) {
+            this.messageEndpointFactory = messageEndpointFactory;
+            this.workManager = workManager;
             this.messageEndpoint = messageEndpoint;
             this.clazz = clazz;
+            this.plan = DispatchPlan.forClass(clazz, LISTENERS);
         }
 
         public void invoke(Chat chat, Message message) {
@@ -359,76 +299,41 @@ public class XMPPResourceAdapter implements ResourceAdapter, Serializable, Messa
 
             // find matching method(s)
 
-            final List<Method> matchingMethods =
-                    Arrays.asList(clazz.getDeclaredMethods())
-                            .stream()
-                            .sorted((m1, m2) -> m1.toString().compareTo(m2.toString()))
-                            .filter(this::isPublic)
-                            .filter(this::isNotFinal)
-                            .filter(this::isNotAbstract)
-                            .filter(m -> filterSender(chat.getParticipant(), m))
-                            .filter(m -> filterMessage(message.getBody(), m))
-                            .collect(Collectors.toList());
-
-            if (matchingMethods == null || matchingMethods.size() == 0) {
+            final String sender = chat.getParticipant();
+            final List<DispatchPlan.MethodPlan> matchingMethods = plan.match(sender, message.getBody());
+
+            if (matchingMethods.size() == 0) {
                 LOGGER.log(Level.INFO, "No method to match " + chatMessage);
                 return;
             }
 
-            if (this.clazz.isAnnotationPresent(InvokeAllMatches.class)) {
-                for (final Method method : matchingMethods) {
-                    LOGGER.log(Level.INFO, "Invoking method " + method.toString() + " for " + chatMessage);
-                    invoke(method, chat.getParticipant(), message.getBody());
+            if (plan.isParallel() && messageEndpointFactory != null && matchingMethods.size() > 1) {
+                final FanOut fanOut = new FanOut(workManager, plan.getTimeout());
+                for (final DispatchPlan.MethodPlan method : matchingMethods) {
+                    LOGGER.log(Level.INFO, "Invoking method " + method + " for " + chatMessage);
+                    fanOut.add(method.toString(), () -> invokeOnNewEndpoint(method, sender, message.getBody()));
                 }
-            } else {
-                final Method method = matchingMethods.get(0);
-                LOGGER.log(Level.INFO, "Invoking method " + method.toString() + " for " + chatMessage);
-                invoke(method, chat.getParticipant(), message.getBody());
-            }
-        }
-
-        private boolean filterMessage(final String message, final Method m) {
-            return !m.isAnnotationPresent(MessageText.class) || "".equals(m.getAnnotation(MessageText.class).value())
-                    || templateMatches(m.getAnnotation(MessageText.class).value(), message);
-        }
 
-        private boolean filterSender(final String sender, final Method m) {
-            return !m.isAnnotationPresent(Sender.class) || "".equals(m.getAnnotation(Sender.class).value())
-                    || templateMatches(m.getAnnotation(Sender.class).value(), sender);
-        }
-
-        private boolean templateMatches(final String pattern, final String input) {
-            try {
-                if (Pattern.matches(pattern, input)) {
-                    return true;
+                final FanOut.Report report = fanOut.run();
+                LOGGER.log(report.isSuccessful() ? Level.INFO : Level.WARNING, "Invoked " + report + " for " + chatMessage);
+            } else if (plan.isInvokeAllMatches()) {
+                for (final DispatchPlan.MethodPlan method : matchingMethods) {
+                    LOGGER.log(Level.INFO, "Invoking method " + method + " for " + chatMessage);
+                    invoke(method, sender, message.getBody());
                 }
-            } catch (Exception e) {
-                // ignore
+            } else {
+                final DispatchPlan.MethodPlan method = matchingMethods.get(0);
+                LOGGER.log(Level.INFO, "Invoking method " + method + " for " + chatMessage);
+                invoke(method, sender, message.getBody());
             }
-
-            final Template template = new Template(pattern);
-            final Map<String, List<String>> values = new HashMap<>();
-            return template.match(input, values);
-        }
-
-        private boolean isPublic(final Method m) {
-            return Modifier.isPublic(m.getModifiers());
-        }
-
-        private boolean isNotAbstract(final Method m) {
-            return !Modifier.isAbstract(m.getModifiers());
-        }
-
-        private boolean isNotFinal(final Method m) {
-            return !Modifier.isFinal(m.getModifiers());
         }
 
-        private void invoke(final Method method, final String sender, final String message) {
+        private void invoke(final DispatchPlan.MethodPlan plan, final String sender, final String message) {
+            final Method method = plan.getMethod();
             try {
                 try {
                     messageEndpoint.beforeDelivery(method);
-                    final Object[] values = getValues(method, sender, message);
-                    method.invoke(messageEndpoint, values);
+                    plan.invoke(messageEndpoint, plan.arguments(sender, message));
                 } finally {
                     messageEndpoint.afterDelivery();
                 }
@@ -436,6 +341,21 @@ public class XMPPResourceAdapter implements ResourceAdapter, Serializable, Messa
                 throw new RuntimeException(e);
             }
         }
+
+        private Object invokeOnNewEndpoint(final DispatchPlan.MethodPlan plan, final String sender, final String message) throws Exception {
+            final Method method = plan.getMethod();
+            final MessageEndpoint endpoint = messageEndpointFactory.createEndpoint(null);
+            try {
+                endpoint.beforeDelivery(method);
+                try {
+                    return plan.invoke(endpoint, plan.arguments(sender, message));
+                } finally {
+                    endpoint.afterDelivery();
+                }
+            } finally {
+                endpoint.release();
+            }
+        }
     }
 
     public static class ChatMessage {
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tomee.chatterbox.xmpp.impl;
+
+import org.apache.tomee.chatterbox.dispatch.DispatchPlan;
+import org.apache.tomee.chatterbox.xmpp.api.inflow.MessageText;
+import org.apache.tomee.chatterbox.xmpp.api.inflow.MessageTextParam;
+import org.apache.tomee.chatterbox.xmpp.api.inflow.Sender;
+import org.apache.tomee.chatterbox.xmpp.api.inflow.SenderParam;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+public class DispatchPlanTest {
+
+    @Test
+    public void candidateMethodsInStableOrder() {
+        final List<DispatchPlan.MethodPlan> methods = DispatchPlan.forClass(Commands.class, XMPPResourceAdapter.LISTENERS).getMethods();
+
+        Assert.assertEquals(3, methods.size());
+        Assert.assertEquals("add", methods.get(0).getMethod().getName());
+        Assert.assertEquals("echo", methods.get(1).getMethod().getName());
+        Assert.assertEquals("status", methods.get(2).getMethod().getName());
+    }
+
+    @Test
+    public void matchesAndBinds() throws Exception {
+        final DispatchPlan plan = DispatchPlan.forClass(Commands.class, XMPPResourceAdapter.LISTENERS);
+
+        final List<DispatchPlan.MethodPlan> matching = plan.match("joe@example.com/laptop", "echo hello");
+        Assert.assertEquals(1, matching.size());
+        Assert.assertTrue(plan.match("joe@example.org/laptop", "echo hello").isEmpty());
+        Assert.assertEquals(2, plan.match("joe@example.com/laptop", "echo status").size());
+
+        final DispatchPlan.MethodPlan echo = matching.get(0);
+        final Object[] arguments = echo.arguments("joe@example.com/laptop", "echo hello");
+        Assert.assertEquals("joe", arguments[0]);
+        Assert.assertEquals("hello", arguments[1]);
+        Assert.assertEquals("joe: hello", echo.invoke(new Commands(), arguments));
+    }
+
+    @Test
+    public void invokesWithPrimitiveParameters() throws Exception {
+        final DispatchPlan.MethodPlan add = DispatchPlan.forClass(Commands.class, XMPPResourceAdapter.LISTENERS).match("ann@example.org", "4 plus 7").get(0);
+
+        Assert.assertEquals(11, add.invoke(new Commands(), add.arguments("ann@example.org", "4 plus 7")));
+    }
+
+    @Test(expected = InvocationTargetException.class)
+    public void conversionFailureReported() throws Exception {
+        final DispatchPlan.MethodPlan add = DispatchPlan.forClass(Commands.class, XMPPResourceAdapter.LISTENERS).getMethods().get(0);
+        add.invoke(new Commands(), add.arguments("ann@example.org", "four plus 7"));
+    }
+
+    public static class Commands {
+
+        @Sender("{user}@example.com/{resource}")
+        @MessageText("echo {text}")
+        public String echo(@SenderParam("user") final String user, @MessageTextParam("text") final String text) {
+            return user + ": " + text;
+        }
+
+        @MessageText(".*status")
+        public void status(@MessageTextParam final String text) {
+        }
+
+        @MessageText("{a} plus {b}")
+        public int add(@MessageTextParam("a") final int a, @MessageTextParam("b") final int b) {
+            return a + b;
+        }
+
+        public final void notAListener() {
+        }
+    }
+}